@@ -0,0 +1,139 @@
+package com.chatapp.server;
+
+import com.chatapp.database.ConnectionPool;
+import com.chatapp.database.PasswordHasher;
+import com.chatapp.database.UserDao;
+import com.chatapp.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Logs connections in and registers new users. Password checks and hashing run a deliberately
+ * slow key derivation, so they are done on a small fixed pool of verifier threads with a
+ * bounded queue, never on the threads reading sockets or routing messages. When the queue is
+ * full, new logins are turned away instead of piling up. A successful check yields a session
+ * token, which a reconnecting client presents instead of its password.
+ */
+public class AuthService {
+    private static final Logger logger = LoggerFactory.getLogger(AuthService.class);
+
+    private final UserDao userDao;
+    private final SessionTokenCache sessions;
+    private final ThreadPoolExecutor verifiers;
+    // Checked when the username doesn't exist, so that costs as much as a wrong password
+    private volatile String unknownUserHash;
+
+    public AuthService(ConnectionPool pool, int threads, int queueCapacity, long sessionTtlMillis) {
+        this.userDao = new UserDao(pool);
+        this.sessions = new SessionTokenCache(TimeUnit.MILLISECONDS.toNanos(sessionTtlMillis));
+        AtomicInteger counter = new AtomicInteger();
+        this.verifiers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "auth-verifier-" + counter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Checks a username and password on the verifier pool. The future completes with a new
+     * session, with null if the credentials are wrong, or exceptionally if the check couldn't
+     * be made (database error, or RejectedExecutionException when the pool is saturated).
+     */
+    public CompletableFuture<SessionTokenCache.Session> verifyPassword(String username, String password) {
+        try {
+            return CompletableFuture.supplyAsync(() -> check(username, password), verifiers);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Login queue is full ({} waiting), turning away {}", verifiers.getQueue().size(), username);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Creates a user on the verifier pool, since hashing the password is as slow as checking
+     * one. The future completes with the new user, with null if the username or email is
+     * taken, or exceptionally as for verifyPassword.
+     */
+    public CompletableFuture<User> register(String username, String email, String password) {
+        try {
+            return CompletableFuture.supplyAsync(() -> create(username, email, password), verifiers);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Login queue is full ({} waiting), turning away registration of {}",
+                    verifiers.getQueue().size(), username);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private User create(String username, String email, String password) {
+        User created;
+        try {
+            created = userDao.create(username, email, PasswordHasher.hash(password));
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+        if (created == null) {
+            return null;
+        }
+        User user = new User();
+        user.setId(created.getId());
+        user.setUsername(created.getUsername());
+        user.setEmail(created.getEmail());
+        return user;
+    }
+
+    private SessionTokenCache.Session check(String username, String password) {
+        User stored;
+        try {
+            stored = userDao.findByUsername(username);
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+        if (stored == null) {
+            PasswordHasher.verify(password, unknownUserHash());
+            return null;
+        }
+        if (!PasswordHasher.verify(password, stored.getPasswordHash())) {
+            return null;
+        }
+        // The session keeps who the user is, not the password hash
+        User user = new User();
+        user.setId(stored.getId());
+        user.setUsername(stored.getUsername());
+        user.setEmail(stored.getEmail());
+        return sessions.issue(user);
+    }
+
+    private String unknownUserHash() {
+        String hash = unknownUserHash;
+        if (hash == null) {
+            hash = PasswordHasher.hash(Long.toString(System.nanoTime()));
+            unknownUserHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * The user a session token was issued to, if it is still valid. Only a map lookup, so it
+     * is safe to call on any thread.
+     */
+    public User resume(int userId, String token) {
+        return sessions.lookup(userId, token);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public void shutdown() {
+        verifiers.shutdownNow();
+    }
+}
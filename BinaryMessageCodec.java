@@ -0,0 +1,334 @@
+package com.chatapp.protocol;
+
+import com.chatapp.model.Message;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of {@link Message}, used once a connection has negotiated
+ * {@link WireProtocol#BINARY}.
+ *
+ * A frame is a varint payload length followed by the payload:
+ * <pre>
+ * flags      1 byte   READ | TIMESTAMP | CONTENT | USERNAME | HISTORY | SEQUENCE | EMAIL
+ * type       1 byte   MessageType ordinal
+ * id, senderId, chatId   varints
+ * sequence   varlong, if SEQUENCE
+ * timestamp  varlong  epoch millis (UTC), if TIMESTAMP
+ * content, senderUsername, email   varint byte length + UTF-8, if CONTENT / USERNAME / EMAIL
+ * history    varint count + that many payloads, if HISTORY; entries never carry history
+ * </pre>
+ * The type is sent as an ordinal, so new MessageType constants must be added at the end.
+ */
+public final class BinaryMessageCodec {
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    private static final int FLAG_READ = 1;
+    private static final int FLAG_TIMESTAMP = 1 << 1;
+    private static final int FLAG_CONTENT = 1 << 2;
+    private static final int FLAG_USERNAME = 1 << 3;
+    private static final int FLAG_HISTORY = 1 << 4;
+    private static final int FLAG_SEQUENCE = 1 << 5;
+    private static final int FLAG_EMAIL = 1 << 6;
+    // Room left in front of the payload for its length prefix
+    private static final int MAX_VARINT_BYTES = 5;
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+    private BinaryMessageCodec() {}
+
+    /**
+     * Encodes a message as a complete frame, length prefix included.
+     */
+    public static byte[] encodeFrame(Message message) {
+        Encoder encoder = new Encoder(128);
+        encoder.position = MAX_VARINT_BYTES;
+        writeMessage(encoder, message);
+
+        int payloadLength = encoder.position - MAX_VARINT_BYTES;
+        int start = MAX_VARINT_BYTES - varintSize(payloadLength);
+        encoder.position = start;
+        encoder.writeVarint(payloadLength);
+        return Arrays.copyOfRange(encoder.buffer, start, MAX_VARINT_BYTES + payloadLength);
+    }
+
+    /**
+     * Reads one frame from a blocking stream. Returns null at a clean end of stream.
+     */
+    public static Message readFrame(InputStream in) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return null;
+                }
+                throw new EOFException("Stream ended inside a frame header");
+            }
+            if (shift == 28 && (b & 0xF0) != 0) {
+                throw new IOException("Malformed frame length");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length > MAX_FRAME_LENGTH) {
+            throw new IOException("Frame of " + length + " bytes exceeds " + MAX_FRAME_LENGTH);
+        }
+
+        byte[] payload = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(payload, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Stream ended inside a frame");
+            }
+            read += n;
+        }
+        return decode(payload, 0, length);
+    }
+
+    /**
+     * Decodes a frame payload, without its length prefix.
+     */
+    public static Message decode(byte[] payload, int offset, int length) throws IOException {
+        Decoder decoder = new Decoder(payload, offset, offset + length);
+        Message message = readMessage(decoder, false);
+        if (decoder.position != decoder.limit) {
+            throw new IOException("Trailing bytes after message");
+        }
+        return message;
+    }
+
+    /**
+     * Number of bytes at buffer[offset..limit) taken by the frame length prefix, or 0 when the
+     * prefix isn't complete yet. The length itself is returned through lengthOut[0].
+     */
+    public static int readFrameHeader(byte[] buffer, int offset, int limit, int[] lengthOut) throws IOException {
+        int length = 0;
+        for (int i = 0; i < MAX_VARINT_BYTES; i++) {
+            if (offset + i >= limit) {
+                return 0;
+            }
+            int b = buffer[offset + i];
+            length |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (length < 0 || length > MAX_FRAME_LENGTH) {
+                    throw new IOException("Frame of " + (length & 0xFFFFFFFFL) + " bytes exceeds " + MAX_FRAME_LENGTH);
+                }
+                lengthOut[0] = length;
+                return i + 1;
+            }
+        }
+        throw new IOException("Malformed frame length");
+    }
+
+    private static void writeMessage(Encoder encoder, Message message) {
+        byte[] content = message.getContent() != null ? message.getContent().getBytes(StandardCharsets.UTF_8) : null;
+        byte[] username = message.getSenderUsername() != null
+            ? message.getSenderUsername().getBytes(StandardCharsets.UTF_8) : null;
+        byte[] email = message.getEmail() != null ? message.getEmail().getBytes(StandardCharsets.UTF_8) : null;
+        List<Message> history = message.getHistory();
+
+        int flags = 0;
+        if (message.isRead()) flags |= FLAG_READ;
+        if (message.getTimestamp() != null) flags |= FLAG_TIMESTAMP;
+        if (content != null) flags |= FLAG_CONTENT;
+        if (username != null) flags |= FLAG_USERNAME;
+        if (history != null) flags |= FLAG_HISTORY;
+        if (message.getSequence() != 0) flags |= FLAG_SEQUENCE;
+        if (email != null) flags |= FLAG_EMAIL;
+
+        encoder.writeByte(flags);
+        encoder.writeByte(message.getType() != null ? message.getType().ordinal() : 0xFF);
+        encoder.writeVarint(message.getId());
+        encoder.writeVarint(message.getSenderId());
+        encoder.writeVarint(message.getChatId());
+        if (message.getSequence() != 0) {
+            encoder.writeVarlong(message.getSequence());
+        }
+        if (message.getTimestamp() != null) {
+            encoder.writeVarlong(message.getTimestamp().toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+        if (content != null) {
+            encoder.writeBytes(content);
+        }
+        if (username != null) {
+            encoder.writeBytes(username);
+        }
+        if (email != null) {
+            encoder.writeBytes(email);
+        }
+        if (history != null) {
+            encoder.writeVarint(history.size());
+            for (Message entry : history) {
+                writeMessage(encoder, entry);
+            }
+        }
+    }
+
+    private static Message readMessage(Decoder decoder, boolean historyEntry) throws IOException {
+        int flags = decoder.readByte();
+        // One level only: nested history would let a small frame recurse deep enough to overflow the stack
+        if (historyEntry && (flags & FLAG_HISTORY) != 0) {
+            throw new IOException("History entry carries history");
+        }
+        int type = decoder.readByte();
+
+        Message message = new Message();
+        if (type != 0xFF) {
+            if (type >= TYPES.length) {
+                throw new IOException("Unknown message type " + type);
+            }
+            message.setType(TYPES[type]);
+        }
+        message.setRead((flags & FLAG_READ) != 0);
+        message.setId(decoder.readVarint());
+        message.setSenderId(decoder.readVarint());
+        message.setChatId(decoder.readVarint());
+        if ((flags & FLAG_SEQUENCE) != 0) {
+            message.setSequence(decoder.readVarlong());
+        }
+        if ((flags & FLAG_TIMESTAMP) != 0) {
+            long millis = decoder.readVarlong();
+            message.setTimestamp(LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000),
+                (int) Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC));
+        }
+        if ((flags & FLAG_CONTENT) != 0) {
+            message.setContent(decoder.readString());
+        }
+        if ((flags & FLAG_USERNAME) != 0) {
+            message.setSenderUsername(decoder.readString());
+        }
+        if ((flags & FLAG_EMAIL) != 0) {
+            message.setEmail(decoder.readString());
+        }
+        if ((flags & FLAG_HISTORY) != 0) {
+            int count = decoder.readVarint();
+            if (count < 0 || count > decoder.limit - decoder.position) {
+                throw new IOException("Malformed history count " + count);
+            }
+            List<Message> history = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                history.add(readMessage(decoder, true));
+            }
+            message.setHistory(history);
+        }
+        return message;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static final class Encoder {
+        private byte[] buffer;
+        private int position;
+
+        Encoder(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarint(int value) {
+            ensureCapacity(MAX_VARINT_BYTES);
+            while ((value & ~0x7F) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarlong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        private void ensureCapacity(int needed) {
+            if (position + needed > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + needed));
+            }
+        }
+    }
+
+    private static final class Decoder {
+        private final byte[] buffer;
+        private final int limit;
+        private int position;
+
+        Decoder(byte[] buffer, int position, int limit) {
+            this.buffer = buffer;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        int readByte() throws IOException {
+            if (position >= limit) {
+                throw new EOFException("Message truncated");
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varlong");
+        }
+
+        String readString() throws IOException {
+            int length = readVarint();
+            if (length < 0 || length > limit - position) {
+                throw new EOFException("String length " + length + " runs past the message");
+            }
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.chatapp.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
 
 public class Chat {
     private int id;
@@ -11,7 +15,7 @@ public class Chat {
     private int creatorId;
     private LocalDateTime createdAt;
     private LocalDateTime lastMessageTime;
-    private List<Integer> participantIds;
+    private ParticipantSet participants;
     private String lastMessage;
 
     public enum ChatType {
@@ -19,7 +23,7 @@ public class Chat {
     }
 
     public Chat() {
-        this.participantIds = new ArrayList<>();
+        this.participants = new ParticipantSet();
         this.createdAt = LocalDateTime.now();
     }
 
@@ -49,24 +53,36 @@ public class Chat {
     public LocalDateTime getLastMessageTime() { return lastMessageTime; }
     public void setLastMessageTime(LocalDateTime lastMessageTime) { this.lastMessageTime = lastMessageTime; }
 
-    public List<Integer> getParticipantIds() { return participantIds; }
-    public void setParticipantIds(List<Integer> participantIds) { this.participantIds = participantIds; }
+    // A read-only copy in ascending order, so changing it fails instead of being lost;
+    // changes go through addParticipant and removeParticipant
+    public List<Integer> getParticipantIds() {
+        return Collections.unmodifiableList(
+            Arrays.stream(participants.toArray()).boxed().collect(Collectors.toList()));
+    }
+    public void setParticipantIds(List<Integer> participantIds) {
+        this.participants = participantIds == null ? new ParticipantSet()
+            : ParticipantSet.of(participantIds.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    // Not bean properties, so the JSON shape stays id, name, ..., participantIds
+    @JsonIgnore
+    public ParticipantSet getParticipants() { return participants; }
+    @JsonIgnore
+    public int getParticipantCount() { return participants.size(); }
 
     public String getLastMessage() { return lastMessage; }
     public void setLastMessage(String lastMessage) { this.lastMessage = lastMessage; }
 
     public void addParticipant(int userId) {
-        if (!participantIds.contains(userId)) {
-            participantIds.add(userId);
-        }
+        participants.add(userId);
     }
 
     public void removeParticipant(int userId) {
-        participantIds.remove(Integer.valueOf(userId));
+        participants.remove(userId);
     }
 
     public boolean isParticipant(int userId) {
-        return participantIds.contains(userId);
+        return participants.contains(userId);
     }
 
     @Override
@@ -76,7 +92,7 @@ public class Chat {
                 ", name='" + name + '\'' +
                 ", type=" + type +
                 ", creatorId=" + creatorId +
-                ", participantCount=" + participantIds.size() +
+                ", participantCount=" + participants.size() +
                 ", lastMessage='" + lastMessage + '\'' +
                 '}';
     }
@@ -1,41 +1,86 @@
 package com.chatapp.client;
 
 import com.chatapp.model.Message;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.chatapp.model.User;
+import com.chatapp.protocol.BinaryMessageCodec;
+import com.chatapp.protocol.MessageJson;
+import com.chatapp.protocol.WireProtocol;
+import com.fasterxml.jackson.databind.MappingIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 public class ChatClient {
     private static final Logger logger = LoggerFactory.getLogger(ChatClient.class);
     private static final String SERVER_HOST = "localhost";
     private static final int SERVER_PORT = 8080;
+    private static final int FLUSH_THRESHOLD_BYTES = 16 * 1024;
+    private static final long MAX_FLUSH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 2000;
+    private static final long RECONNECT_MIN_DELAY_MILLIS = 250;
+    private static final long RECONNECT_MAX_DELAY_MILLIS = 30_000;
+    private static final int AUTH_TIMEOUT_SECONDS = 15;
     
+    private final String host;
+    private final int port;
     private Socket socket;
-    private BufferedReader input;
-    private PrintWriter output;
-    private final ObjectMapper objectMapper;
+    private InputStream input;
+    private OutputStream output;
+    private final WireProtocol preferredProtocol;
+    private volatile WireProtocol protocol;
+    private final BlockingQueue<byte[]> outgoing;
+    // Highest sequence seen per chat: anything at or below it is a duplicate, a jump is a gap
+    private final Map<Integer, Long> lastSequences = new ConcurrentHashMap<>();
     private Consumer<Message> messageHandler;
-    private boolean isConnected;
+    private volatile int userId;
+    // Issued by the server at login and presented instead of the password after a reconnect
+    private volatile String sessionToken;
+    private volatile CompletableFuture<Message> pendingAuth;
+    private volatile boolean isConnected;
     private Thread listenerThread;
+    private volatile Thread writerThread;
 
     public ChatClient() {
-        this.objectMapper = new ObjectMapper();
+        this(WireProtocol.BINARY);
+    }
+
+    public ChatClient(WireProtocol preferredProtocol) {
+        this(SERVER_HOST, SERVER_PORT, preferredProtocol);
+    }
+
+    // BINARY is only a proposal; servers that don't know it keep the connection on JSON
+    public ChatClient(String host, int port, WireProtocol preferredProtocol) {
+        this.host = host;
+        this.port = port;
+        this.preferredProtocol = preferredProtocol;
+        this.protocol = WireProtocol.JSON;
+        this.outgoing = new LinkedBlockingQueue<>();
         this.isConnected = false;
     }
 
     public boolean connect() {
         try {
-            socket = new Socket(SERVER_HOST, SERVER_PORT);
-            input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            output = new PrintWriter(socket.getOutputStream(), true);
+            open();
             isConnected = true;
             
             startMessageListener();
-            logger.info("Connected to chat server");
+            startMessageWriter();
+            logger.info("Connected to chat server using {}", protocol);
             return true;
         } catch (IOException e) {
             logger.error("Failed to connect to server", e);
@@ -43,13 +88,121 @@ public class ChatClient {
         }
     }
 
+    private void open() throws IOException {
+        socket = new Socket(host, port);
+        input = new BufferedInputStream(socket.getInputStream());
+        output = new BufferedOutputStream(socket.getOutputStream(), FLUSH_THRESHOLD_BYTES);
+        protocol = WireProtocol.JSON;
+        if (preferredProtocol == WireProtocol.BINARY) {
+            negotiateBinary();
+        }
+    }
+
+    // Runs on the listener thread once the connection drops, until it is back or the client is
+    // disconnected. The delay doubles with every failed attempt and is jittered, so clients
+    // that lost a restarting server don't all come back in the same instant.
+    private void reconnect() {
+        closeSocket();
+        stopMessageWriter();
+        long delay = RECONNECT_MIN_DELAY_MILLIS;
+        while (isConnected) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(delay / 2, delay + 1));
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                open();
+                // The token goes first so the server knows who we are by the time it reads
+                // the resume request, and both go ahead of anything queued while offline, so
+                // our own messages can't overtake the ones we missed
+                sendSessionToken();
+                sendResume();
+                startMessageWriter();
+                logger.info("Reconnected to chat server using {}", protocol);
+                return;
+            } catch (IOException e) {
+                logger.debug("Reconnect failed, retrying in up to {} ms", delay * 2, e);
+                closeSocket();
+                delay = Math.min(delay * 2, RECONNECT_MAX_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private void sendSessionToken() throws IOException {
+        String token = sessionToken;
+        if (token == null) {
+            return;
+        }
+        Message auth = new Message();
+        auth.setType(Message.MessageType.AUTH);
+        auth.setSenderId(userId);
+        auth.setContent(token);
+        output.write(protocol.encode(auth));
+        output.flush();
+    }
+
+    // Tells the server the last sequence seen in every chat, so it sends only what was missed
+    private void sendResume() throws IOException {
+        if (userId == 0 || lastSequences.isEmpty()) {
+            return;
+        }
+        List<Message> positions = new ArrayList<>(lastSequences.size());
+        for (Map.Entry<Integer, Long> entry : lastSequences.entrySet()) {
+            Message position = new Message();
+            position.setChatId(entry.getKey());
+            position.setSequence(entry.getValue());
+            positions.add(position);
+        }
+        Message resume = new Message();
+        resume.setType(Message.MessageType.RESUME);
+        resume.setSenderId(userId);
+        resume.setHistory(positions);
+        output.write(protocol.encode(resume));
+        output.flush();
+    }
+
+    // Sends the handshake and waits briefly for the server to echo it. Anything else that
+    // arrives instead is left in the stream and read as JSON.
+    private void negotiateBinary() throws IOException {
+        byte[] handshake = WireProtocol.handshakeLine();
+        output.write(handshake);
+        output.flush();
+
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        input.mark(handshake.length);
+        try {
+            for (byte b : handshake) {
+                if (input.read() != b) {
+                    input.reset();
+                    return;
+                }
+            }
+            protocol = WireProtocol.BINARY;
+        } catch (SocketTimeoutException e) {
+            input.reset();
+            logger.info("Server did not accept the binary protocol, using JSON");
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
     public void disconnect() {
         isConnected = false;
         
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+        }
+        if (writerThread != null) {
+            writerThread.interrupt();
+        }
+        closeSocket();
+        
+        logger.info("Disconnected from chat server");
+    }
+
+    private void closeSocket() {
         try {
-            if (listenerThread != null) {
-                listenerThread.interrupt();
-            }
             if (input != null) input.close();
             if (output != null) output.close();
             if (socket != null && !socket.isClosed()) {
@@ -58,20 +211,30 @@ public class ChatClient {
         } catch (IOException e) {
             logger.error("Error closing connection", e);
         }
-        
-        logger.info("Disconnected from chat server");
     }
 
     private void startMessageListener() {
         listenerThread = new Thread(() -> {
-            try {
-                String messageJson;
-                while (isConnected && (messageJson = input.readLine()) != null) {
-                    handleIncomingMessage(messageJson);
+            while (isConnected) {
+                try {
+                    if (protocol == WireProtocol.BINARY) {
+                        Message message;
+                        while (isConnected && (message = BinaryMessageCodec.readFrame(input)) != null) {
+                            deliver(message);
+                        }
+                    } else {
+                        MappingIterator<Message> messages = MessageJson.readStream(input);
+                        while (isConnected && messages.hasNextValue()) {
+                            deliver(messages.nextValue());
+                        }
+                    }
+                } catch (IOException e) {
+                    if (isConnected) {
+                        logger.warn("Lost connection to chat server", e);
+                    }
                 }
-            } catch (IOException e) {
                 if (isConnected) {
-                    logger.error("Error in message listener", e);
+                    reconnect();
                 }
             }
         });
@@ -79,17 +242,120 @@ public class ChatClient {
         listenerThread.start();
     }
 
-    private void handleIncomingMessage(String messageJson) {
+    // Sends everything queued in one flush, so a burst of messages costs one write instead of one each
+    private void startMessageWriter() {
+        // Each writer sticks to the stream it was started with; a reconnect starts a new one
+        OutputStream out = output;
+        writerThread = new Thread(() -> {
+            try {
+                while (isConnected) {
+                    byte[] frame = outgoing.take();
+                    long flushDeadline = System.nanoTime() + MAX_FLUSH_DELAY_NANOS;
+                    do {
+                        out.write(frame);
+                        if (System.nanoTime() - flushDeadline >= 0) {
+                            out.flush();
+                            flushDeadline = System.nanoTime() + MAX_FLUSH_DELAY_NANOS;
+                        }
+                    } while ((frame = outgoing.poll()) != null);
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                if (isConnected) {
+                    logger.error("Error in message writer", e);
+                }
+            }
+        });
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private void stopMessageWriter() {
+        Thread writer = writerThread;
+        if (writer == null) {
+            return;
+        }
+        writer.interrupt();
         try {
-            Message message = objectMapper.readValue(messageJson, Message.class);
-            if (messageHandler != null) {
-                messageHandler.accept(message);
+            writer.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // A failing handler must not take the listener down with it
+    private void deliver(Message message) {
+        if (message.getType() == Message.MessageType.REGISTER) {
+            CompletableFuture<Message> pending = pendingAuth;
+            if (pending != null) {
+                pending.complete(message);
             }
+            return;
+        }
+        if (message.getType() == Message.MessageType.AUTH) {
+            CompletableFuture<Message> pending = pendingAuth;
+            if (pending != null) {
+                pending.complete(message);
+                return;
+            }
+            // The answer to the token sent after a reconnect. The handler is told either way;
+            // a refusal means the session expired or the server restarted, so log in again
+            if (message.getSenderId() == 0) {
+                sessionToken = null;
+                logger.warn("The server did not accept our session after reconnecting");
+            }
+        }
+        if (message.getType() == Message.MessageType.RESUME && message.getHistory() != null) {
+            // Missed messages, replayed in order; each is handled as if it had arrived live
+            message.getHistory().forEach(this::deliver);
+            return;
+        }
+        if (!checkSequence(message) || messageHandler == null) {
+            return;
+        }
+        try {
+            messageHandler.accept(message);
         } catch (Exception e) {
-            logger.error("Error parsing incoming message", e);
+            logger.error("Error handling incoming message", e);
         }
     }
 
+    // False for a message already seen. The server never hands out a number twice (it reserves
+    // them durably before use), so a number at or below the last one seen is a replay of a
+    // message already delivered. Only the listener thread updates the sequences.
+    private boolean checkSequence(Message message) {
+        if (message.getType() == Message.MessageType.HISTORY_RESPONSE && message.getHistory() != null) {
+            for (Message entry : message.getHistory()) {
+                lastSequences.merge(entry.getChatId(), entry.getSequence(), Math::max);
+            }
+            return true;
+        }
+        long sequence = message.getSequence();
+        if (sequence == 0) {
+            return true;
+        }
+        long last = lastSequences.getOrDefault(message.getChatId(), 0L);
+        if (sequence <= last) {
+            logger.debug("Dropping duplicate message {} of chat {}", sequence, message.getChatId());
+            return false;
+        }
+        if (last > 0 && sequence > last + 1) {
+            // Usually numbers the server reserved but never used before a restart
+            logger.debug("Sequence of chat {} skipped from {} to {}", message.getChatId(), last, sequence);
+        }
+        lastSequences.put(message.getChatId(), sequence);
+        return true;
+    }
+
+    /**
+     * The highest sequence number received in a chat, or 0 if none has been seen yet.
+     */
+    public long getLastSequence(int chatId) {
+        return lastSequences.getOrDefault(chatId, 0L);
+    }
+
     public void sendMessage(Message message) {
         if (!isConnected) {
             logger.warn("Cannot send message: not connected to server");
@@ -97,9 +363,7 @@ public class ChatClient {
         }
 
         try {
-            String messageJson = objectMapper.writeValueAsString(message);
-            output.println(messageJson);
-            logger.debug("Message sent: {}", message.getContent());
+            outgoing.add(protocol.encode(message));
         } catch (Exception e) {
             logger.error("Error sending message", e);
         }
@@ -110,6 +374,100 @@ public class ChatClient {
         sendMessage(message);
     }
 
+    public void requestHistory(int userId, int chatId) {
+        requestHistory(userId, chatId, 0);
+    }
+
+    // Asks for the page of messages before beforeId; 0 asks for the newest messages
+    public void requestHistory(int userId, int chatId, int beforeId) {
+        Message request = new Message();
+        request.setType(Message.MessageType.HISTORY_REQUEST);
+        request.setId(beforeId);
+        request.setSenderId(userId);
+        request.setChatId(chatId);
+        sendMessage(request);
+    }
+
+    /**
+     * Logs in over the connection and waits for the server's answer. Returns the user, or null
+     * if the username or password is wrong. Throws if the server doesn't answer in time or
+     * couldn't check the password.
+     */
+    public User authenticate(String username, String password) throws IOException {
+        Message request = new Message();
+        request.setType(Message.MessageType.AUTH);
+        request.setSenderUsername(username);
+        request.setContent(password);
+        Message response = request(request);
+
+        if (response.getSenderId() == 0) {
+            if (response.getContent() != null) {
+                throw new IOException("The chat server could not check the login (" + response.getContent() + ")");
+            }
+            return null;
+        }
+        userId = response.getSenderId();
+        sessionToken = response.getContent();
+        User user = new User();
+        user.setId(response.getSenderId());
+        user.setUsername(response.getSenderUsername());
+        return user;
+    }
+
+    /**
+     * Creates an account over the connection and waits for the server's answer. Returns the
+     * new user, or null if the username or email is taken. Doesn't log in. Throws if the
+     * server doesn't answer in time, refused the details or couldn't store the user.
+     */
+    public User register(String username, String email, String password) throws IOException {
+        Message request = new Message();
+        request.setType(Message.MessageType.REGISTER);
+        request.setSenderUsername(username);
+        request.setContent(password);
+        request.setEmail(email);
+        Message response = request(request);
+
+        if (response.getSenderId() == 0) {
+            if (!"TAKEN".equals(response.getContent())) {
+                throw new IOException("The chat server could not register the user (" + response.getContent() + ")");
+            }
+            return null;
+        }
+        User user = new User();
+        user.setId(response.getSenderId());
+        user.setUsername(response.getSenderUsername());
+        user.setEmail(email);
+        return user;
+    }
+
+    // Sends a login or registration request and waits for the answer; one at a time
+    private Message request(Message request) throws IOException {
+        if (!isConnected) {
+            throw new IOException("Not connected to the chat server");
+        }
+        CompletableFuture<Message> reply = new CompletableFuture<>();
+        pendingAuth = reply;
+        sendMessage(request);
+        try {
+            return reply.get(AUTH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            throw new IOException("No answer from the chat server to the " + request.getType() + " request", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the chat server");
+        } finally {
+            pendingAuth = null;
+        }
+    }
+
+    /**
+     * The user this client acts for, reported in the resume handshake after a reconnect.
+     * authenticate sets it; only needed for connections identified some other way.
+     */
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
     public void setMessageHandler(Consumer<Message> messageHandler) {
         this.messageHandler = messageHandler;
     }
@@ -118,11 +476,15 @@ public class ChatClient {
         return isConnected && socket != null && !socket.isClosed();
     }
 
+    public WireProtocol getProtocol() {
+        return protocol;
+    }
+
     public String getServerHost() {
-        return SERVER_HOST;
+        return host;
     }
 
     public int getServerPort() {
-        return SERVER_PORT;
+        return port;
     }
 }
@@ -8,6 +8,8 @@ import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
@@ -35,6 +37,8 @@ public class ChatController {
     private ChatClient chatClient;
     private final ObservableList<Chat> chats;
     private final ObservableList<Message> messages;
+    private boolean loadingOlder;
+    private boolean reachedStart;
 
     public ChatController() {
         this.chats = FXCollections.observableArrayList();
@@ -101,6 +105,20 @@ public class ChatController {
                 }
             }
         );
+        
+        // Scrolling to the top of the messages loads the page before the oldest one shown.
+        // The list's scroll bar only exists once it has been skinned, so look it up later.
+        Platform.runLater(() -> {
+            for (Node node : messageListView.lookupAll(".scroll-bar")) {
+                if (node instanceof ScrollBar && ((ScrollBar) node).getOrientation() == Orientation.VERTICAL) {
+                    ((ScrollBar) node).valueProperty().addListener((observable, oldValue, newValue) -> {
+                        if (newValue.doubleValue() <= 0) {
+                            loadOlderMessages();
+                        }
+                    });
+                }
+            }
+        });
     }
 
     private void loadSampleData() {
@@ -139,14 +157,20 @@ public class ChatController {
         currentChat = chat;
         currentChatLabel.setText(chat.getName());
         messages.clear();
+        loadingOlder = false;
+        reachedStart = false;
         
-        // TODO: Load messages for this chat from database
         loadChatMessages(chat.getId());
     }
 
     private void loadChatMessages(int chatId) {
-        // TODO: Implement loading messages from database
-        // For now, add some sample messages
+        // The server answers from its recent-history cache with a HISTORY_RESPONSE
+        if (chatClient != null && chatClient.isConnected()) {
+            chatClient.requestHistory(currentUser.getId(), chatId);
+            return;
+        }
+
+        // Offline: show some sample messages
         if (chatId == 1) {
             messages.add(new Message(1, chatId, "Hello! How are you?", Message.MessageType.TEXT));
             messages.add(new Message(2, chatId, "I'm doing great, thanks!", Message.MessageType.TEXT));
@@ -156,6 +180,26 @@ public class ChatController {
         }
     }
 
+    private void loadOlderMessages() {
+        if (loadingOlder || reachedStart || currentChat == null
+                || chatClient == null || !chatClient.isConnected()) {
+            return;
+        }
+        // Messages sent in this session may not have an id yet; page from the oldest stored one
+        int oldestId = 0;
+        for (Message message : messages) {
+            if (message.getId() > 0) {
+                oldestId = message.getId();
+                break;
+            }
+        }
+        if (oldestId == 0) {
+            return;
+        }
+        loadingOlder = true;
+        chatClient.requestHistory(currentUser.getId(), currentChat.getId(), oldestId);
+    }
+
     private void sendMessage() {
         String content = messageInput.getText().trim();
         if (content.isEmpty() || currentChat == null) {
@@ -181,36 +225,76 @@ public class ChatController {
         messageListView.scrollTo(messages.size() - 1);
     }
 
-    public void setUser(User user) {
+    // The client is already connected and logged in as user
+    public void setSession(User user, ChatClient chatClient) {
         this.currentUser = user;
-        connectToServer();
+        this.chatClient = chatClient;
+        chatClient.setMessageHandler(this::handleIncomingMessage);
     }
 
     public void setStage(Stage stage) {
         this.stage = stage;
     }
 
-    private void connectToServer() {
-        chatClient = new ChatClient();
-        chatClient.setMessageHandler(this::handleIncomingMessage);
-        
-        if (chatClient.connect()) {
-            logger.info("Connected to chat server");
-        } else {
-            logger.error("Failed to connect to chat server");
-            showAlert("Connection Error", "Failed to connect to chat server. Please check if the server is running.");
-        }
-    }
-
     private void handleIncomingMessage(Message message) {
         Platform.runLater(() -> {
-            if (currentChat != null && message.getChatId() == currentChat.getId()) {
-                messages.add(message);
-                messageListView.scrollTo(messages.size() - 1);
+            if (message.getType() == Message.MessageType.HISTORY_RESPONSE) {
+                if (currentChat != null && message.getChatId() == currentChat.getId()
+                        && message.getHistory() != null) {
+                    List<Message> page = message.getHistory();
+                    if (message.getId() > 0) {
+                        // An older page: prepend it and keep the same messages in view
+                        loadingOlder = false;
+                        if (page.isEmpty()) {
+                            reachedStart = true;
+                        } else {
+                            messages.addAll(0, page);
+                            messageListView.scrollTo(page.size());
+                        }
+                    } else {
+                        messages.setAll(page);
+                        messageListView.scrollTo(messages.size() - 1);
+                    }
+                }
+            } else if (message.getType() == Message.MessageType.SYSTEM && "RESYNC".equals(message.getContent())) {
+                // The server dropped our backlog; reload the open chat
+                if (currentChat != null) {
+                    loadChatMessages(currentChat.getId());
+                }
+            } else if (message.getType() == Message.MessageType.AUTH) {
+                // Sent after a reconnect; a refusal means our session is gone
+                if (message.getSenderId() == 0) {
+                    showAlert("Session Expired", "The server no longer recognizes this session. Please log in again.");
+                }
+            } else if (message.getType() == Message.MessageType.PRESENCE) {
+                // Contacts' online state; the chat list has no presence indicators yet
+                return;
+            } else if (currentChat != null && message.getChatId() == currentChat.getId()) {
+                if (!replacePendingCopy(message)) {
+                    messages.add(message);
+                    messageListView.scrollTo(messages.size() - 1);
+                }
             }
         });
     }
 
+    // Our own messages come back from the server with their sequence number; swap that copy in
+    // for the one shown when it was sent instead of showing it twice
+    private boolean replacePendingCopy(Message echo) {
+        if (currentUser == null || echo.getSenderId() != currentUser.getId()) {
+            return false;
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            Message shown = messages.get(i);
+            if (shown.getSequence() == 0 && shown.getSenderId() == echo.getSenderId()
+                    && java.util.Objects.equals(shown.getContent(), echo.getContent())) {
+                messages.set(i, echo);
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void showAlert(String title, String content) {
         Alert alert = new Alert(Alert.AlertType.ERROR);
         alert.setTitle(title);
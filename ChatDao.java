@@ -0,0 +1,285 @@
+package com.chatapp.database;
+
+import com.chatapp.model.Chat;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes chats and chat_participants. A chat is always read together with its
+ * participants in one joined query, one row per participant, so loading a user's whole chat
+ * list is a single round trip through idx_participants_user.
+ */
+public class ChatDao {
+    private static final String COLUMNS =
+        "c.id, c.name, c.type, c.creator_id, c.created_at, c.last_message_time, c.last_message, p.user_id";
+    private static final String SELECT_BY_ID =
+        "SELECT " + COLUMNS + " FROM chats c LEFT JOIN chat_participants p ON p.chat_id = c.id " +
+        "WHERE c.id = ?";
+    private static final String SELECT_BY_USER =
+        "SELECT " + COLUMNS + " FROM chat_participants mine " +
+        "JOIN chats c ON c.id = mine.chat_id " +
+        "JOIN chat_participants p ON p.chat_id = c.id " +
+        "WHERE mine.user_id = ? ORDER BY c.last_message_time DESC, c.id";
+    private static final String SELECT_PARTICIPANT_IDS =
+        "SELECT user_id FROM chat_participants WHERE chat_id = ? ORDER BY user_id";
+    private static final String SELECT_CHAT_IDS =
+        "SELECT chat_id FROM chat_participants WHERE user_id = ? ORDER BY chat_id";
+    // A derived table rather than IN (subquery), which MySQL doesn't allow a LIMIT in
+    private static final String SELECT_RECENT_PARTICIPANTS =
+        "SELECT p.chat_id, p.user_id FROM " +
+        "(SELECT id FROM chats ORDER BY last_message_time DESC LIMIT ?) recent " +
+        "JOIN chat_participants p ON p.chat_id = recent.id ORDER BY p.chat_id, p.user_id";
+    private static final String INSERT_CHAT =
+        "INSERT INTO chats (name, type, creator_id) VALUES (?, ?, ?)";
+    // Adding someone who is already a member is a no-op rather than a failed batch
+    private static final String INSERT_PARTICIPANT =
+        "INSERT IGNORE INTO chat_participants (chat_id, user_id) VALUES (?, ?)";
+    private static final String DELETE_PARTICIPANT =
+        "DELETE FROM chat_participants WHERE chat_id = ? AND user_id = ?";
+    private static final String SELECT_RESERVED_SEQUENCE = "SELECT seq_reserved FROM chats WHERE id = ?";
+    private static final String UPDATE_RESERVED_SEQUENCE = "UPDATE chats SET seq_reserved = ? WHERE id = ?";
+    // Only lowered if nobody raised it in the meantime
+    private static final String RELEASE_RESERVED_SEQUENCE =
+        "UPDATE chats SET seq_reserved = ? WHERE id = ? AND seq_reserved = ?";
+    private static final int[] NO_IDS = new int[0];
+
+    private final ConnectionPool pool;
+
+    public ChatDao(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public Chat findById(int chatId) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_BY_ID)) {
+            stmt.setInt(1, chatId);
+            List<Chat> chats = readChats(stmt);
+            return chats.isEmpty() ? null : chats.get(0);
+        }
+    }
+
+    /**
+     * The chats a user takes part in, with all their participants, most recently active first.
+     */
+    public List<Chat> findByUser(int userId) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_BY_USER)) {
+            stmt.setInt(1, userId);
+            return readChats(stmt);
+        }
+    }
+
+    /**
+     * The sorted participant ids of a chat.
+     */
+    public int[] getParticipantIds(int chatId) throws SQLException {
+        return readIds(SELECT_PARTICIPANT_IDS, chatId);
+    }
+
+    /**
+     * The sorted ids of the chats a user takes part in, through idx_participants_user.
+     */
+    public int[] getChatIds(int userId) throws SQLException {
+        return readIds(SELECT_CHAT_IDS, userId);
+    }
+
+    /**
+     * The sorted participant ids of the `limit` most recently active chats, by chat id, in
+     * one query. Chats without participants are left out.
+     */
+    public Map<Integer, int[]> getParticipantsOfRecentChats(int limit) throws SQLException {
+        Map<Integer, int[]> participants = new LinkedHashMap<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_RECENT_PARTICIPANTS)) {
+            stmt.setInt(1, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int chatId = 0;
+                int[] members = new int[16];
+                int count = 0;
+                while (rs.next()) {
+                    if (rs.getInt(1) != chatId) {
+                        if (count > 0) {
+                            participants.put(chatId, Arrays.copyOf(members, count));
+                        }
+                        chatId = rs.getInt(1);
+                        count = 0;
+                    }
+                    if (count == members.length) {
+                        members = Arrays.copyOf(members, count * 2);
+                    }
+                    members[count++] = rs.getInt(2);
+                }
+                if (count > 0) {
+                    participants.put(chatId, Arrays.copyOf(members, count));
+                }
+            }
+        }
+        return participants;
+    }
+
+    /**
+     * Inserts a chat and its participants in one transaction and sets the chat's new id.
+     */
+    public Chat create(Chat chat) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(INSERT_CHAT, Statement.RETURN_GENERATED_KEYS)) {
+                    stmt.setString(1, chat.getName());
+                    stmt.setString(2, chat.getType().name());
+                    stmt.setInt(3, chat.getCreatorId());
+                    stmt.executeUpdate();
+                    try (ResultSet keys = stmt.getGeneratedKeys()) {
+                        if (!keys.next()) {
+                            throw new SQLException("No id generated for chat " + chat.getName());
+                        }
+                        chat.setId(keys.getInt(1));
+                    }
+                }
+                insertParticipants(conn, chat.getId(), chat.getParticipants().toArray());
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        return chat;
+    }
+
+    /**
+     * Adds participants to a chat with one JDBC batch.
+     */
+    public void addParticipants(int chatId, int... userIds) throws SQLException {
+        if (userIds.length == 0) {
+            return;
+        }
+        try (Connection conn = pool.getConnection()) {
+            insertParticipants(conn, chatId, userIds);
+        }
+    }
+
+    public boolean removeParticipant(int chatId, int userId) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(DELETE_PARTICIPANT)) {
+            stmt.setInt(1, chatId);
+            stmt.setInt(2, userId);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * The highest sequence number a chat may have handed out, 0 if none was reserved or the
+     * chat doesn't exist.
+     */
+    public long getReservedSequence(int chatId) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_RESERVED_SEQUENCE)) {
+            stmt.setInt(1, chatId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Raises a chat's sequence ceiling. False if the chat doesn't exist.
+     */
+    public boolean reserveSequences(int chatId, long ceiling) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(UPDATE_RESERVED_SEQUENCE)) {
+            stmt.setLong(1, ceiling);
+            stmt.setInt(2, chatId);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Lowers the sequence ceiling of each chat from reserved[i] to used[i], with one JDBC batch.
+     */
+    public void releaseSequences(int[] chatIds, long[] reserved, long[] used) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(RELEASE_RESERVED_SEQUENCE)) {
+            for (int i = 0; i < chatIds.length; i++) {
+                stmt.setLong(1, used[i]);
+                stmt.setInt(2, chatIds[i]);
+                stmt.setLong(3, reserved[i]);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private int[] readIds(String sql, int key) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, key);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int[] ids = new int[16];
+                int count = 0;
+                while (rs.next()) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = rs.getInt(1);
+                }
+                return count == 0 ? NO_IDS : Arrays.copyOf(ids, count);
+            }
+        }
+    }
+
+    private static void insertParticipants(Connection conn, int chatId, int[] userIds) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(INSERT_PARTICIPANT)) {
+            for (int userId : userIds) {
+                stmt.setInt(1, chatId);
+                stmt.setInt(2, userId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static List<Chat> readChats(PreparedStatement stmt) throws SQLException {
+        Map<Integer, Chat> chats = new LinkedHashMap<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                int chatId = rs.getInt(1);
+                Chat chat = chats.get(chatId);
+                if (chat == null) {
+                    chat = map(rs);
+                    chats.put(chatId, chat);
+                }
+                int userId = rs.getInt(8);
+                // LEFT JOIN of a chat with no participants
+                if (!rs.wasNull()) {
+                    chat.addParticipant(userId);
+                }
+            }
+        }
+        return new ArrayList<>(chats.values());
+    }
+
+    // By position, in COLUMNS order; the participant column is read by readChats
+    private static Chat map(ResultSet rs) throws SQLException {
+        Chat chat = new Chat();
+        chat.setId(rs.getInt(1));
+        chat.setName(rs.getString(2));
+        chat.setType(Chat.ChatType.valueOf(rs.getString(3)));
+        chat.setCreatorId(rs.getInt(4));
+        Timestamp createdAt = rs.getTimestamp(5);
+        chat.setCreatedAt(createdAt != null ? createdAt.toLocalDateTime() : null);
+        Timestamp lastMessageTime = rs.getTimestamp(6);
+        chat.setLastMessageTime(lastMessageTime != null ? lastMessageTime.toLocalDateTime() : null);
+        chat.setLastMessage(rs.getString(7));
+        return chat;
+    }
+}
@@ -0,0 +1,305 @@
+package com.chatapp.server;
+
+import com.chatapp.database.ChatDao;
+import com.chatapp.database.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory, two-way index of chat_participants: chatId to members for the send path, and
+ * userId to chats for presence. Each side is loaded per key on first use (recently active
+ * chats can also be loaded in bulk at startup) and then kept as a sorted int[] that is
+ * replaced, never mutated, on membership changes, so readers need no locking.
+ *
+ * The number of ids held across both sides is capped. Past the cap, the least recently used
+ * entries are dropped until the index is 10% under it; they are reloaded if needed again.
+ *
+ * A lookup that has to load and can't reach the database throws IllegalStateException, so
+ * callers can tell it apart from a chat without members.
+ */
+public class ChatMembershipIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ChatMembershipIndex.class);
+    // Per side, keys are spread over this many change counters
+    private static final int VERSION_STRIPES = 1024;
+
+    private final ChatDao chatDao;
+    private final long maxIds;
+    private final ConcurrentMap<Integer, Entry> membersByChat;
+    private final ConcurrentMap<Integer, Entry> chatsByUser;
+    // Ids held by both sides, plus one per entry so empty ones count too
+    private final AtomicLong cachedIds = new AtomicLong();
+    // Bumped before every membership change to a key's stripe, so a load that raced a change
+    // to the same key can tell its rows may be stale. Changes elsewhere don't disturb it.
+    private final AtomicLongArray chatVersions = new AtomicLongArray(VERSION_STRIPES);
+    private final AtomicLongArray userVersions = new AtomicLongArray(VERSION_STRIPES);
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public ChatMembershipIndex(DatabaseManager databaseManager, long maxIds) {
+        this.chatDao = new ChatDao(databaseManager.getPool());
+        this.maxIds = Math.max(1, maxIds);
+        this.membersByChat = new ConcurrentHashMap<>();
+        this.chatsByUser = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Loads the members of the most recently active chats with one query. Only the chat side is
+     * filled: a user's chat list is only known once all of it has been read.
+     */
+    public void preload(int chats) {
+        if (chats <= 0) {
+            return;
+        }
+        Map<Integer, int[]> participants;
+        try {
+            participants = chatDao.getParticipantsOfRecentChats(chats);
+        } catch (SQLException e) {
+            logger.error("Failed to preload the members of {} chats", chats, e);
+            return;
+        }
+        int loaded = 0;
+        for (Map.Entry<Integer, int[]> chat : participants.entrySet()) {
+            if (cachedIds.get() >= maxIds) {
+                break;
+            }
+            if (membersByChat.putIfAbsent(chat.getKey(), new Entry(chat.getValue())) == null) {
+                cachedIds.addAndGet(weight(chat.getValue()));
+                loaded++;
+            }
+        }
+        loads.add(loaded);
+        logger.info("Preloaded the members of {} chats ({} ids cached)", loaded, cachedIds.get());
+    }
+
+    /**
+     * Returns the sorted participant ids of a chat. The array is shared and must not be modified.
+     * Throws IllegalStateException if they had to be loaded and couldn't be.
+     */
+    public int[] getMembers(int chatId) {
+        return get(membersByChat, chatId, true);
+    }
+
+    /**
+     * Returns the sorted ids of the chats a user takes part in. The array is shared and must
+     * not be modified. Throws IllegalStateException if they had to be loaded and couldn't be.
+     */
+    public int[] getChats(int userId) {
+        return get(chatsByUser, userId, false);
+    }
+
+    public boolean isMember(int chatId, int userId) {
+        return Arrays.binarySearch(getMembers(chatId), userId) >= 0;
+    }
+
+    /**
+     * Stores new participants, then adds them to whichever sides of the index are loaded.
+     */
+    public void addParticipants(int chatId, int... userIds) throws SQLException {
+        chatDao.addParticipants(chatId, userIds);
+        for (int userId : userIds) {
+            addMember(chatId, userId);
+        }
+    }
+
+    public void removeParticipant(int chatId, int userId) throws SQLException {
+        chatDao.removeParticipant(chatId, userId);
+        removeMember(chatId, userId);
+    }
+
+    // For changes already stored. Entries that aren't loaded pick them up from the database.
+    public void addMember(int chatId, int userId) {
+        changed(chatId, userId);
+        update(membersByChat, chatId, userId, true);
+        update(chatsByUser, userId, chatId, true);
+    }
+
+    public void removeMember(int chatId, int userId) {
+        changed(chatId, userId);
+        update(membersByChat, chatId, userId, false);
+        update(chatsByUser, userId, chatId, false);
+    }
+
+    /**
+     * Drops a chat whose participants were changed behind the server's back, along with the
+     * chat lists of its known members.
+     */
+    public void invalidate(int chatId) {
+        // Which users' chat lists are affected isn't known, so any user load in flight may be stale
+        chatVersions.incrementAndGet(stripe(chatId));
+        for (int i = 0; i < VERSION_STRIPES; i++) {
+            userVersions.incrementAndGet(i);
+        }
+        Entry removed = membersByChat.remove(chatId);
+        if (removed == null) {
+            return;
+        }
+        cachedIds.addAndGet(-weight(removed.ids));
+        for (int userId : removed.ids) {
+            Entry chats = chatsByUser.remove(userId);
+            if (chats != null) {
+                cachedIds.addAndGet(-weight(chats.ids));
+            }
+        }
+    }
+
+    public long getCachedIdCount() {
+        return cachedIds.get();
+    }
+
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private int[] get(ConcurrentMap<Integer, Entry> side, int key, boolean chatSide) {
+        Entry entry = side.get(key);
+        if (entry != null) {
+            entry.lastUsed = System.nanoTime();
+            return entry.ids;
+        }
+
+        // Loaded outside the map, so other keys in the same bin don't wait on the query. Two
+        // threads may both load a key; the first to install wins.
+        AtomicLongArray versions = chatSide ? chatVersions : userVersions;
+        long seen = versions.get(stripe(key));
+        int[] ids = load(key, chatSide);
+        Entry loaded = new Entry(ids);
+        Entry existing = side.putIfAbsent(key, loaded);
+        if (existing != null) {
+            existing.lastUsed = System.nanoTime();
+            return existing.ids;
+        }
+        cachedIds.addAndGet(weight(ids));
+        loads.increment();
+        // A change to this key (or one sharing its stripe) made while loading found nothing to
+        // patch, so these rows may predate it. Once installed, later changes patch the entry,
+        // so checking after installing is enough.
+        if (versions.get(stripe(key)) != seen && side.remove(key, loaded)) {
+            cachedIds.addAndGet(-weight(ids));
+        }
+        evictIfNeeded();
+        return ids;
+    }
+
+    private int[] load(int key, boolean chatSide) {
+        try {
+            return chatSide ? chatDao.getParticipantIds(key) : chatDao.getChatIds(key);
+        } catch (SQLException e) {
+            // Not cached, so the next lookup retries the load
+            throw new IllegalStateException("Failed to load the " + (chatSide ? "participants of chat " : "chats of user ")
+                    + key, e);
+        }
+    }
+
+    private void changed(int chatId, int userId) {
+        chatVersions.incrementAndGet(stripe(chatId));
+        userVersions.incrementAndGet(stripe(userId));
+    }
+
+    private static int stripe(int key) {
+        return Math.floorMod(key, VERSION_STRIPES);
+    }
+
+    private void update(ConcurrentMap<Integer, Entry> side, int key, int id, boolean add) {
+        side.computeIfPresent(key, (k, entry) -> {
+            int[] ids = entry.ids;
+            int index = Arrays.binarySearch(ids, id);
+            int[] updated;
+            if (add) {
+                if (index >= 0) {
+                    return entry;
+                }
+                int insertAt = -index - 1;
+                updated = new int[ids.length + 1];
+                System.arraycopy(ids, 0, updated, 0, insertAt);
+                updated[insertAt] = id;
+                System.arraycopy(ids, insertAt, updated, insertAt + 1, ids.length - insertAt);
+            } else {
+                if (index < 0) {
+                    return entry;
+                }
+                updated = new int[ids.length - 1];
+                System.arraycopy(ids, 0, updated, 0, index);
+                System.arraycopy(ids, index + 1, updated, index, ids.length - index - 1);
+            }
+            cachedIds.addAndGet(updated.length - ids.length);
+            Entry replaced = new Entry(updated);
+            replaced.lastUsed = entry.lastUsed;
+            return replaced;
+        });
+    }
+
+    // Sorting every entry is O(n log n), so it is done once per 10% of the cap rather than
+    // per load; a thread that finds another one evicting goes on without waiting
+    private void evictIfNeeded() {
+        if (cachedIds.get() <= maxIds || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Candidate> candidates = new ArrayList<>(membersByChat.size() + chatsByUser.size());
+            membersByChat.forEach((key, entry) -> candidates.add(new Candidate(membersByChat, key, entry)));
+            chatsByUser.forEach((key, entry) -> candidates.add(new Candidate(chatsByUser, key, entry)));
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.lastUsed));
+
+            long target = maxIds - maxIds / 10;
+            for (Candidate candidate : candidates) {
+                if (cachedIds.get() <= target) {
+                    break;
+                }
+                // Skipped if the entry was replaced since, which means it is in use
+                if (candidate.side.remove(candidate.key, candidate.entry)) {
+                    cachedIds.addAndGet(-weight(candidate.entry.ids));
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static long weight(int[] ids) {
+        return ids.length + 1;
+    }
+
+    private static final class Entry {
+        final int[] ids;
+        volatile long lastUsed;
+
+        Entry(int[] ids) {
+            this.ids = ids;
+            this.lastUsed = System.nanoTime();
+        }
+    }
+
+    private static final class Candidate {
+        final ConcurrentMap<Integer, Entry> side;
+        final int key;
+        final Entry entry;
+        // Read once, so the sort sees a stable value
+        final long lastUsed;
+
+        Candidate(ConcurrentMap<Integer, Entry> side, int key, Entry entry) {
+            this.side = side;
+            this.key = key;
+            this.entry = entry;
+            this.lastUsed = entry.lastUsed;
+        }
+    }
+}
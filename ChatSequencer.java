@@ -0,0 +1,188 @@
+package com.chatapp.server;
+
+import com.chatapp.database.ChatDao;
+import com.chatapp.database.DatabaseManager;
+import com.chatapp.database.MessageDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out per-chat sequence numbers, increasing in the order messages are delivered. Each
+ * chat has its own counter, so chats never contend, and next() is only called from the chat's
+ * router stripe, which is what makes sequence order and delivery order the same.
+ *
+ * Messages are stored write-behind, so the highest stored sequence can lag behind what clients
+ * have already been sent. Numbers are therefore reserved in blocks: chats.seq_reserved is
+ * raised before any number above it is handed out, and a counter that is (re)loaded starts at
+ * that ceiling. A number is never handed out twice, at the cost of a gap after a crash; a
+ * clean shutdown hands the unused part of each block back.
+ *
+ * At most maxChats counters are held; past that, the least recently used are dropped and
+ * reloaded from the ceiling when next needed.
+ */
+public class ChatSequencer {
+    private static final Logger logger = LoggerFactory.getLogger(ChatSequencer.class);
+    private static final long RESERVE_BLOCK = 1000;
+
+    private final ChatDao chatDao;
+    private final MessageDao messageDao;
+    private final int maxChats;
+    private final ConcurrentMap<Integer, Counter> counters = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public ChatSequencer(DatabaseManager databaseManager, int maxChats) {
+        this.chatDao = new ChatDao(databaseManager.getPool());
+        this.messageDao = new MessageDao(databaseManager.getPool());
+        this.maxChats = Math.max(1, maxChats);
+    }
+
+    /**
+     * The next sequence number of a chat. Only to be called from the chat's router stripe.
+     * Throws IllegalStateException if a block of numbers can't be reserved, rather than risk
+     * reusing a number.
+     */
+    public long next(int chatId) {
+        Counter counter = counters.get(chatId);
+        if (counter == null) {
+            // Loaded here, outside the map, so other chats never wait on the query. Only this
+            // chat's stripe loads it, so nothing else can install a counter in the meantime.
+            counter = load(chatId);
+            Counter existing = counters.putIfAbsent(chatId, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+            evictIfNeeded();
+        }
+        long sequence = counter.last + 1;
+        if (sequence > counter.reserved) {
+            long ceiling = counter.last + RESERVE_BLOCK;
+            reserve(chatId, ceiling);
+            counter.reserved = ceiling;
+        }
+        counter.last = sequence;
+        counter.lastUsed = System.nanoTime();
+        return sequence;
+    }
+
+    /**
+     * The last sequence number handed out in a chat, or -1 if its counter isn't loaded, in
+     * which case anything up to the reserved ceiling may have been handed out. Never queries.
+     */
+    public long current(int chatId) {
+        Counter counter = counters.get(chatId);
+        return counter != null ? counter.last : -1;
+    }
+
+    /**
+     * Lowers each chat's ceiling to the last number it handed out, so a clean restart goes on
+     * without a gap. Must run after the router stripes have stopped.
+     */
+    public void release() {
+        List<Integer> chatIds = new ArrayList<>(counters.size());
+        List<long[]> bounds = new ArrayList<>(counters.size());
+        counters.forEach((chatId, counter) -> {
+            if (counter.last < counter.reserved) {
+                chatIds.add(chatId);
+                bounds.add(new long[] {counter.reserved, counter.last});
+            }
+        });
+        if (chatIds.isEmpty()) {
+            return;
+        }
+        int[] ids = new int[chatIds.size()];
+        long[] reserved = new long[ids.length];
+        long[] used = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = chatIds.get(i);
+            reserved[i] = bounds.get(i)[0];
+            used[i] = bounds.get(i)[1];
+        }
+        try {
+            chatDao.releaseSequences(ids, reserved, used);
+        } catch (SQLException e) {
+            // Harmless: the next run starts those chats at their ceilings
+            logger.warn("Failed to release reserved sequences of {} chats: {}", ids.length, e.getMessage());
+        }
+    }
+
+    public int getLoadedChatCount() {
+        return counters.size();
+    }
+
+    private Counter load(int chatId) {
+        try {
+            // The stored maximum only matters for chats sequenced before ceilings were kept
+            long start = Math.max(chatDao.getReservedSequence(chatId), messageDao.getLastSequence(chatId));
+            return new Counter(start);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to load the sequence of chat " + chatId, e);
+        }
+    }
+
+    private void reserve(int chatId, long ceiling) {
+        try {
+            if (!chatDao.reserveSequences(chatId, ceiling)) {
+                throw new IllegalStateException("Chat " + chatId + " does not exist");
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to reserve sequences of chat " + chatId, e);
+        }
+    }
+
+    // Dropping a counter is safe at any time: everything it handed out is at or below its
+    // stored ceiling, which is where a reload starts
+    private void evictIfNeeded() {
+        if (counters.size() <= maxChats || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Candidate> candidates = new ArrayList<>(counters.size());
+            counters.forEach((chatId, counter) -> candidates.add(new Candidate(chatId, counter)));
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.lastUsed));
+
+            int target = maxChats - maxChats / 10;
+            for (Candidate candidate : candidates) {
+                if (counters.size() <= target) {
+                    break;
+                }
+                counters.remove(candidate.chatId, candidate.counter);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Counter {
+        // Written only by the chat's stripe; read by resume and release from other threads
+        volatile long last;
+        volatile long reserved;
+        volatile long lastUsed;
+
+        Counter(long start) {
+            this.last = start;
+            this.reserved = start;
+            this.lastUsed = System.nanoTime();
+        }
+    }
+
+    private static final class Candidate {
+        final int chatId;
+        final Counter counter;
+        // Read once, so the sort sees a stable value
+        final long lastUsed;
+
+        Candidate(int chatId, Counter counter) {
+            this.chatId = chatId;
+            this.counter = counter;
+            this.lastUsed = counter.lastUsed;
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package com.chatapp.server;
 
+import com.chatapp.database.ConnectionPool;
 import com.chatapp.database.DatabaseManager;
 import com.chatapp.model.Message;
 import com.chatapp.model.User;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.chatapp.protocol.MessageJson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,42 +12,79 @@ import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatServer {
     private static final Logger logger = LoggerFactory.getLogger(ChatServer.class);
-    private static final int PORT = 8080;
-    private static final int MAX_CLIENTS = 100;
     
     private ServerSocket serverSocket;
-    private final Map<Integer, ClientHandler> clients;
-    private final ExecutorService threadPool;
-    private final ObjectMapper objectMapper;
+    private NioTransport nioTransport;
+    private final ServerConfig config;
+    private final OnlineUserRegistry clients;
+    private ExecutorService threadPool;
+    private ExecutorService writerPool;
     private final DatabaseManager databaseManager;
-    private boolean isRunning;
+    private final ChatMembershipIndex membershipIndex;
+    private final MessagePersister messagePersister;
+    private final MessageRouter messageRouter;
+    private final ShardedBroadcaster broadcaster;
+    private final ChatSequencer sequencer;
+    private final MessageHistoryService historyService;
+    private final RecentHistoryCache historyCache;
+    private final PresenceService presenceService;
+    private final OutboundStats outboundStats;
+    private final ServerMetrics metrics;
+    private final LogSampler messageLogSampler;
+    private final AuthService authService;
+    private MetricsEndpoint metricsEndpoint;
+    private volatile boolean isRunning;
 
     public ChatServer() {
-        this.clients = new ConcurrentHashMap<>();
-        this.threadPool = Executors.newFixedThreadPool(MAX_CLIENTS);
-        this.objectMapper = new ObjectMapper();
+        this(ServerConfig.load());
+    }
+
+    public ChatServer(ServerConfig config) {
+        this.config = config;
+        this.clients = new OnlineUserRegistry();
         this.databaseManager = DatabaseManager.getInstance();
+        this.membershipIndex = new ChatMembershipIndex(databaseManager, config.getMembershipMaxIds());
+        this.messagePersister = new MessagePersister(databaseManager.getPool(), config.getPersistBatchSize(),
+                config.getPersistFlushIntervalMillis(), config.getPersistQueueCapacity(),
+                config.getPersistDurability());
+        this.historyService = new MessageHistoryService(databaseManager);
+        this.historyCache = new RecentHistoryCache(historyService, config.getHistorySize(),
+                config.getHistoryMaxMessages());
+        this.broadcaster = new ShardedBroadcaster(this, config.getBroadcastThreads(),
+                config.getBroadcastParallelThreshold(), config.getBroadcastMaxChats());
+        this.sequencer = new ChatSequencer(databaseManager, config.getSequencerMaxChats());
+        this.messageRouter = new MessageRouter(this, membershipIndex, messagePersister, historyCache,
+                broadcaster, sequencer, config.getRouterThreads());
+        this.presenceService = new PresenceService(this, databaseManager.getPool(),
+                config.getPresenceOfflineGraceMillis(), config.getPresenceFlushIntervalMillis());
+        this.outboundStats = new OutboundStats();
+        this.metrics = new ServerMetrics();
+        this.messageLogSampler = new LogSampler(config.getMessageLogSampleRate());
+        this.authService = new AuthService(databaseManager.getPool(), config.getAuthThreads(),
+                config.getAuthQueueCapacity(), TimeUnit.MINUTES.toMillis(config.getAuthSessionTtlMinutes()));
         this.isRunning = false;
+        MessageJson.warmUp();
     }
 
     public void start() {
         try {
-            serverSocket = new ServerSocket(PORT);
             isRunning = true;
-            logger.info("Chat server started on port {}", PORT);
-            
-            while (isRunning) {
-                Socket clientSocket = serverSocket.accept();
-                logger.info("New client connected: {}", clientSocket.getInetAddress());
-                
-                ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                threadPool.execute(clientHandler);
+            messagePersister.start();
+            membershipIndex.preload(config.getMembershipPreloadChats());
+            presenceService.start();
+            startMetrics();
+            if (config.getMode() == ServerConfig.ServerMode.NIO) {
+                startNio();
+            } else {
+                startThreadPool();
             }
         } catch (IOException e) {
             if (isRunning) {
@@ -57,16 +95,99 @@ public class ChatServer {
         }
     }
 
-    public void stop() {
+    // The chat server runs without metrics rather than not at all if the port is taken
+    private void startMetrics() {
+        if (config.getMetricsPort() == 0) {
+            return;
+        }
+        metricsEndpoint = new MetricsEndpoint(this, config.getMetricsHost(), config.getMetricsPort());
+        try {
+            metricsEndpoint.start();
+        } catch (IOException e) {
+            logger.error("Failed to start the metrics endpoint on port {}", config.getMetricsPort(), e);
+            metricsEndpoint = null;
+        }
+    }
+
+    private void startThreadPool() throws IOException {
+        threadPool = createClientExecutor();
+        writerPool = createWriterExecutor();
+        serverSocket = new ServerSocket(config.getPort());
+        logger.info("Chat server started on port {}", config.getPort());
+        
+        while (isRunning) {
+            Socket clientSocket = serverSocket.accept();
+            logger.info("New client connected: {}", clientSocket.getInetAddress());
+            
+            ClientHandler clientHandler = new ClientHandler(clientSocket, this);
+            threadPool.execute(clientHandler);
+        }
+    }
+
+    private ExecutorService createClientExecutor() {
+        if (config.getMode() == ServerConfig.ServerMode.VIRTUAL_THREADS) {
+            if (VirtualThreads.isSupported()) {
+                // One virtual thread per client: no MAX_CLIENTS cap and no 1 MB platform stacks
+                logger.info("Running client handlers on virtual threads");
+                return VirtualThreads.newThreadPerTaskExecutor();
+            }
+            logger.warn("Virtual threads need Java 21 (running {}), falling back to a pool of {} threads",
+                    Runtime.version(), config.getMaxClients());
+        }
+        return Executors.newFixedThreadPool(config.getMaxClients());
+    }
+
+    // Blocking writes park a writer thread per stalled client, never the thread routing the message
+    private ExecutorService createWriterExecutor() {
+        if (config.getMode() == ServerConfig.ServerMode.VIRTUAL_THREADS && VirtualThreads.isSupported()) {
+            return VirtualThreads.newThreadPerTaskExecutor();
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "chat-writer-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void startNio() throws IOException {
+        nioTransport = new NioTransport(this, config);
+        logger.info("Chat server started on port {} (NIO)", config.getPort());
+        nioTransport.serve();
+    }
+
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
         isRunning = false;
         logger.info("Stopping chat server...");
         
         // Close all client connections
-        clients.values().forEach(ClientHandler::disconnect);
+        clients.forEach(ClientHandler::disconnect);
         clients.clear();
         
-        // Shutdown thread pool
-        threadPool.shutdown();
+        // Stop routing new messages and store what is already queued
+        messageRouter.shutdown();
+        sequencer.release();
+        broadcaster.shutdown();
+        messagePersister.shutdown();
+        presenceService.shutdown();
+        authService.shutdown();
+        
+        // Shutdown thread pool or event loops
+        if (threadPool != null) {
+            threadPool.shutdown();
+        }
+        if (writerPool != null) {
+            writerPool.shutdown();
+        }
+        if (nioTransport != null) {
+            nioTransport.shutdown();
+        }
+        if (metricsEndpoint != null) {
+            metricsEndpoint.stop();
+        }
         
         // Close server socket
         if (serverSocket != null && !serverSocket.isClosed()) {
@@ -85,29 +206,132 @@ public class ChatServer {
 
     public void addClient(int userId, ClientHandler clientHandler) {
         clients.put(userId, clientHandler);
+        presenceService.connected(userId);
         logger.info("Client {} added. Total clients: {}", userId, clients.size());
     }
 
     public void removeClient(int userId) {
-        clients.remove(userId);
-        logger.info("Client {} removed. Total clients: {}", userId, clients.size());
+        ClientHandler client = clients.get(userId);
+        if (client != null) {
+            removeClient(userId, client);
+        }
     }
 
-    public void broadcastMessage(Message message, List<Integer> recipientIds) {
-        String messageJson;
-        try {
-            messageJson = objectMapper.writeValueAsString(message);
-        } catch (Exception e) {
-            logger.error("Error serializing message", e);
-            return;
+    // Only unregisters the user if this handler is still its current connection
+    public void removeClient(int userId, ClientHandler clientHandler) {
+        if (clients.remove(userId, clientHandler)) {
+            presenceService.disconnected(userId);
+            logger.info("Client {} removed. Total clients: {}", userId, clients.size());
         }
+    }
 
+    public void broadcastMessage(Message message, List<Integer> recipientIds) {
+        EncodedMessage encoded = new EncodedMessage(message);
         for (Integer userId : recipientIds) {
             ClientHandler client = clients.get(userId);
             if (client != null && client.isConnected()) {
-                client.sendMessage(messageJson);
+                client.sendMessage(encoded);
+            }
+        }
+    }
+
+    public void broadcastMessage(EncodedMessage message, int[] recipientIds, int excludedUserId) {
+        long start = System.nanoTime();
+        int recipients = sendToAll(message, recipientIds, excludedUserId);
+        metrics.recordFanOut(recipients, start);
+    }
+
+    // Returns how many recipients the message was queued for; recording it is up to the caller
+    int sendToAll(EncodedMessage message, int[] recipientIds, int excludedUserId) {
+        int recipients = 0;
+        for (int userId : recipientIds) {
+            if (userId == excludedUserId) {
+                continue;
+            }
+            ClientHandler client = clients.get(userId);
+            if (client != null && client.isConnected()) {
+                client.sendMessage(message);
+                recipients++;
             }
         }
+        return recipients;
+    }
+
+    public void routeMessage(Message message) {
+        messageRouter.route(message);
+    }
+
+    void resumeChat(ClientHandler client, int userId, int chatId, long lastSequence) {
+        messageRouter.resume(client, userId, chatId, lastSequence);
+    }
+
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(config.getOutboundQueueCapacity(), config.getSlowConsumerPolicy(), outboundStats);
+    }
+
+    Executor getWriterExecutor() {
+        return writerPool;
+    }
+
+    ServerConfig getConfig() {
+        return config;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    AuthService getAuthService() {
+        return authService;
+    }
+
+    LogSampler getMessageLogSampler() {
+        return messageLogSampler;
+    }
+
+    ConnectionPool getDatabasePool() {
+        return databaseManager.getPool();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public OutboundStats getOutboundStats() {
+        return outboundStats;
+    }
+
+    public int getQueuedMessageCount() {
+        int[] queued = new int[1];
+        clients.forEach(client -> queued[0] += client.getQueuedMessageCount());
+        return queued[0];
+    }
+
+    public ChatMembershipIndex getMembershipIndex() {
+        return membershipIndex;
+    }
+
+    public RecentHistoryCache getHistoryCache() {
+        return historyCache;
+    }
+
+    public MessageHistoryService getHistoryService() {
+        return historyService;
+    }
+
+    public ChatSequencer getSequencer() {
+        return sequencer;
+    }
+
+    public PresenceService getPresenceService() {
+        return presenceService;
+    }
+
+    public void sendToUser(int userId, Message message) {
+        ClientHandler client = clients.get(userId);
+        if (client != null && client.isConnected()) {
+            client.sendMessage(message);
+        }
     }
 
     public void sendPrivateMessage(int recipientId, String messageJson) {
@@ -118,11 +342,17 @@ public class ChatServer {
     }
 
     public boolean isClientOnline(int userId) {
-        return clients.containsKey(userId) && clients.get(userId).isConnected();
+        ClientHandler client = clients.get(userId);
+        return client != null && client.isConnected();
     }
 
+    // A snapshot; it does not change as users come and go
     public Set<Integer> getOnlineUsers() {
-        return clients.keySet();
+        Set<Integer> online = new HashSet<>();
+        for (int userId : clients.userIds()) {
+            online.add(userId);
+        }
+        return Collections.unmodifiableSet(online);
     }
 
     public static void main(String[] args) {
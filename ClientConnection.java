@@ -0,0 +1,21 @@
+package com.chatapp.server;
+
+/**
+ * Outbound side of a client connection. ClientHandler queues lines in its
+ * {@link OutboundQueue} and asks the connection to drain it, so the same protocol
+ * code runs on blocking sockets and on the NIO event loops.
+ */
+public interface ClientConnection {
+
+    /**
+     * Drains the queue on this connection's writer stage. Called after frames were queued;
+     * returns without waiting for the write.
+     */
+    void requestWrite(OutboundQueue queue);
+
+    void close();
+
+    boolean isOpen();
+
+    String getRemoteAddress();
+}
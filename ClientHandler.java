@@ -2,30 +2,60 @@ package com.chatapp.server;
 
 import com.chatapp.model.Message;
 import com.chatapp.model.User;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.chatapp.protocol.BinaryMessageCodec;
+import com.chatapp.protocol.MessageJson;
+import com.chatapp.protocol.WireProtocol;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClientHandler implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(ClientHandler.class);
     
     private final Socket clientSocket;
     private final ChatServer server;
-    private final ObjectMapper objectMapper;
-    private BufferedReader input;
-    private PrintWriter output;
-    private User user;
-    private boolean isConnected;
+    private final OutboundQueue outbound;
+    private final ServerMetrics metrics;
+    private final LogSampler messageLogSampler;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean authPending = new AtomicBoolean();
+    private InputStream input;
+    private ClientConnection connection;
+    // Set by a password check on an auth verifier thread, read by the thread handling messages
+    private volatile User user;
+    private volatile boolean isConnected;
+    private volatile WireProtocol protocol = WireProtocol.JSON;
 
     public ClientHandler(Socket socket, ChatServer server) {
         this.clientSocket = socket;
         this.server = server;
-        this.objectMapper = new ObjectMapper();
+        this.outbound = server.newOutboundQueue();
+        this.metrics = server.getMetrics();
+        this.messageLogSampler = server.getMessageLogSampler();
         this.isConnected = false;
+        metrics.connectionOpened();
+    }
+
+    // Used by the NIO transport, which reads on its own I/O threads and calls handleFrame
+    ClientHandler(ClientConnection connection, ChatServer server) {
+        this.clientSocket = null;
+        this.server = server;
+        this.outbound = server.newOutboundQueue();
+        this.metrics = server.getMetrics();
+        this.messageLogSampler = server.getMessageLogSampler();
+        this.connection = connection;
+        this.isConnected = true;
+        metrics.connectionOpened();
     }
 
     @Override
@@ -34,10 +64,27 @@ public class ClientHandler implements Runnable {
             setupStreams();
             isConnected = true;
             logger.info("Client handler started for: {}", clientSocket.getInetAddress());
+            negotiateProtocol();
             
-            String inputLine;
-            while (isConnected && (inputLine = input.readLine()) != null) {
-                handleMessage(inputLine);
+            if (protocol == WireProtocol.BINARY) {
+                Message message;
+                while (isConnected && (message = BinaryMessageCodec.readFrame(input)) != null) {
+                    handleMessage(message);
+                }
+            } else {
+                MappingIterator<Message> messages = MessageJson.readStream(input);
+                while (isConnected && messages.hasNextValue()) {
+                    Message message;
+                    try {
+                        message = messages.nextValue();
+                    } catch (JsonMappingException e) {
+                        // Well-formed JSON that isn't a valid message: skip it, as the NIO
+                        // transport does; the iterator resumes after the bad value
+                        logger.error("Error decoding message", e);
+                        continue;
+                    }
+                    handleMessage(message);
+                }
             }
         } catch (IOException e) {
             if (isConnected) {
@@ -49,14 +96,71 @@ public class ClientHandler implements Runnable {
     }
 
     private void setupStreams() throws IOException {
-        input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        output = new PrintWriter(clientSocket.getOutputStream(), true);
+        input = new BufferedInputStream(clientSocket.getInputStream());
+        ServerConfig config = server.getConfig();
+        connection = new SocketConnection(clientSocket, server.getWriterExecutor(),
+                config.getFlushThresholdBytes(), config.getMaxFlushDelayMillis());
     }
 
-    private void handleMessage(String messageJson) {
+    // Consumes the first line if it is the binary handshake; otherwise leaves it to be read as JSON
+    private void negotiateProtocol() throws IOException {
+        byte[] expected = WireProtocol.handshakeLine();
+        input.mark(expected.length);
+        for (byte b : expected) {
+            if (input.read() != b) {
+                input.reset();
+                return;
+            }
+        }
+        useBinaryProtocol();
+    }
+
+    /**
+     * Switches this client to binary frames. The handshake is the first line a client sends,
+     * before it is bound to a user, so nothing else is writing to it yet and the acknowledgement
+     * is the last text line it receives.
+     */
+    void useBinaryProtocol() {
+        sendFrame(WireProtocol.handshakeLine());
+        Message resync = new Message();
+        resync.setType(Message.MessageType.SYSTEM);
+        resync.setContent("RESYNC");
+        outbound.setResyncFrame(BinaryMessageCodec.encodeFrame(resync));
+        protocol = WireProtocol.BINARY;
+    }
+
+    // A JSON line or a binary frame payload, depending on the negotiated protocol
+    void handleFrame(byte[] frame) {
+        if (!isConnected) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            Message message = protocol == WireProtocol.BINARY
+                ? BinaryMessageCodec.decode(frame, 0, frame.length)
+                : MessageJson.read(frame);
+            metrics.getDecodeLatency().recordSince(start);
+            handleMessage(message);
+        } catch (IOException e) {
+            logger.error("Error decoding message", e);
+        }
+    }
+
+    private void handleMessage(Message message) {
+        // A literal null, or a message without a type, decodes without error
+        if (message == null || message.getType() == null) {
+            logger.warn("Dropping a message without a type");
+            return;
+        }
+        long start = System.nanoTime();
+        metrics.recordInbound(message.getType());
+        if (user == null && message.getType() != Message.MessageType.AUTH
+                && message.getType() != Message.MessageType.REGISTER
+                && message.getType() != Message.MessageType.SYSTEM) {
+            logger.warn("Dropping {} message from a connection that has not logged in", message.getType());
+            return;
+        }
         try {
-            Message message = objectMapper.readValue(messageJson, Message.class);
-            
             switch (message.getType()) {
                 case TEXT:
                     handleTextMessage(message);
@@ -64,21 +168,209 @@ public class ClientHandler implements Runnable {
                 case SYSTEM:
                     handleSystemMessage(message);
                     break;
+                case HISTORY_REQUEST:
+                    handleHistoryRequest(message);
+                    break;
+                case RESUME:
+                    handleResume(message);
+                    break;
+                case AUTH:
+                    handleAuth(message);
+                    break;
+                case REGISTER:
+                    handleRegister(message);
+                    break;
                 default:
                     logger.warn("Unsupported message type: {}", message.getType());
             }
         } catch (Exception e) {
             logger.error("Error handling message", e);
         }
+        metrics.getHandleLatency().recordSince(start);
     }
 
     private void handleTextMessage(Message message) {
-        // Store message in database
-        // TODO: Implement message storage
+        // content is NOT NULL in the messages table; a row that can't be stored must not be delivered
+        if (message.getContent() == null) {
+            logger.warn("Dropping text message without content from user {}", user.getId());
+            return;
+        }
+        // Don't trust the sender fields from the client
+        message.setSenderId(user.getId());
+        message.setSenderUsername(user.getUsername());
         
-        // Broadcast to chat participants
-        // TODO: Get chat participants and broadcast
-        logger.info("Text message from {}: {}", message.getSenderId(), message.getContent());
+        // Store in the database and broadcast to chat participants
+        server.routeMessage(message);
+        // Sampled, and never the content: at full rate this line costs more than routing does
+        if (logger.isDebugEnabled() && messageLogSampler.sample()) {
+            logger.debug("Text message from {} to chat {} ({} chars, 1 in {} logged)", message.getSenderId(),
+                    message.getChatId(), message.getContent() != null ? message.getContent().length() : 0,
+                    messageLogSampler.getRate());
+        }
+    }
+
+    private void handleHistoryRequest(Message request) {
+        int userId = user.getId();
+        if (!server.getMembershipIndex().isMember(request.getChatId(), userId)) {
+            logger.warn("User {} asked for history of chat {} without being a participant",
+                    userId, request.getChatId());
+            return;
+        }
+
+        // No cursor means the newest page, which comes from memory; older pages are
+        // read from the database a page at a time, before the message id in the request
+        List<Message> page;
+        if (request.getId() > 0) {
+            try {
+                page = server.getHistoryService().getBefore(request.getChatId(), request.getId(),
+                        server.getConfig().getHistorySize());
+            } catch (SQLException e) {
+                logger.error("Failed to load history of chat {} before message {}",
+                        request.getChatId(), request.getId(), e);
+                return;
+            }
+        } else {
+            page = server.getHistoryCache().getRecent(request.getChatId());
+        }
+
+        Message response = new Message();
+        response.setType(Message.MessageType.HISTORY_RESPONSE);
+        response.setId(request.getId());
+        response.setChatId(request.getChatId());
+        response.setHistory(page);
+        sendMessage(response);
+    }
+
+    // One entry per chat the client has seen messages of, carrying the last sequence it got
+    private void handleResume(Message request) {
+        if (request.getHistory() == null) {
+            return;
+        }
+        int userId = user.getId();
+        for (Message position : request.getHistory()) {
+            boolean member;
+            try {
+                member = server.getMembershipIndex().isMember(position.getChatId(), userId);
+            } catch (IllegalStateException e) {
+                // The other chats may still be resumed
+                logger.error("Could not check membership of chat {}, not resuming it", position.getChatId(), e);
+                continue;
+            }
+            if (!member) {
+                logger.warn("User {} asked to resume chat {} without being a participant",
+                        userId, position.getChatId());
+                continue;
+            }
+            server.resumeChat(this, userId, position.getChatId(), position.getSequence());
+        }
+    }
+
+    // Never log the request: its content is a password or a session token
+    private void handleAuth(Message request) {
+        if (user != null || request.getContent() == null) {
+            return;
+        }
+        if (request.getSenderUsername() == null) {
+            // A reconnect: checked against the session cache right here, so messages sent
+            // after the token (the resume request first of all) are handled as this user
+            User resumed = server.getAuthService().resume(request.getSenderId(), request.getContent());
+            if (resumed != null) {
+                bindUser(resumed);
+            }
+            sendAuthReply(resumed, request.getContent(), null);
+            return;
+        }
+        // One password check per connection at a time
+        if (!authPending.compareAndSet(false, true)) {
+            return;
+        }
+        String username = request.getSenderUsername();
+        server.getAuthService().verifyPassword(username, request.getContent())
+            .whenComplete((session, error) -> {
+                authPending.set(false);
+                if (error != null) {
+                    // A full queue fails the future directly; errors from the check come wrapped
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (!(cause instanceof RejectedExecutionException)) {
+                        logger.error("Failed to check the password of {}", username, error);
+                    }
+                    sendAuthReply(null, null, "UNAVAILABLE");
+                } else if (session == null) {
+                    logger.info("Failed login for {}", username);
+                    sendAuthReply(null, null, null);
+                } else {
+                    bindUser(session.getUser());
+                    sendAuthReply(session.getUser(), session.getToken(), null);
+                    logger.info("User {} logged in", username);
+                }
+            });
+    }
+
+    // Checked here as well as in the client, which can't be trusted to have done it
+    private void handleRegister(Message request) {
+        String username = request.getSenderUsername();
+        String password = request.getContent();
+        String email = request.getEmail();
+        if (username == null || username.trim().length() < 3 || email == null || !email.contains("@")
+                || password == null || password.length() < 6) {
+            sendRegisterReply(null, "INVALID");
+            return;
+        }
+        // Shares the one-check-at-a-time limit with logins
+        if (!authPending.compareAndSet(false, true)) {
+            return;
+        }
+        String name = username.trim();
+        server.getAuthService().register(name, email.trim(), password)
+            .whenComplete((created, error) -> {
+                authPending.set(false);
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (!(cause instanceof RejectedExecutionException)) {
+                        logger.error("Failed to register {}", name, error);
+                    }
+                    sendRegisterReply(null, "UNAVAILABLE");
+                } else if (created == null) {
+                    sendRegisterReply(null, "TAKEN");
+                } else {
+                    sendRegisterReply(created, null);
+                    logger.info("Registered user {}", name);
+                }
+            });
+    }
+
+    private void sendRegisterReply(User created, String failure) {
+        Message reply = new Message();
+        reply.setType(Message.MessageType.REGISTER);
+        if (created != null) {
+            reply.setSenderId(created.getId());
+            reply.setSenderUsername(created.getUsername());
+        } else {
+            reply.setContent(failure);
+        }
+        sendMessage(reply);
+    }
+
+    private void bindUser(User authenticated) {
+        setUser(authenticated);
+        // The connection may have dropped while the password was being checked; disconnect()
+        // clears isConnected before it reads user, so one of the two unregisters it
+        if (!isConnected) {
+            server.removeClient(authenticated.getId(), this);
+        }
+    }
+
+    private void sendAuthReply(User authenticated, String token, String failure) {
+        Message reply = new Message();
+        reply.setType(Message.MessageType.AUTH);
+        if (authenticated != null) {
+            reply.setSenderId(authenticated.getId());
+            reply.setSenderUsername(authenticated.getUsername());
+            reply.setContent(token);
+        } else {
+            reply.setContent(failure);
+        }
+        sendMessage(reply);
     }
 
     private void handleSystemMessage(Message message) {
@@ -87,32 +379,82 @@ public class ClientHandler implements Runnable {
     }
 
     public void sendMessage(String messageJson) {
-        if (isConnected && output != null) {
-            output.println(messageJson);
+        if (protocol == WireProtocol.JSON) {
+            sendFrame((messageJson + "\n").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        try {
+            sendFrame(BinaryMessageCodec.encodeFrame(MessageJson.read(messageJson)));
+        } catch (IOException e) {
+            logger.error("Error re-encoding message for a binary client", e);
         }
     }
 
+    public void sendMessage(Message message) {
+        try {
+            sendFrame(protocol.encode(message));
+        } catch (IOException e) {
+            logger.error("Error encoding message", e);
+        }
+    }
+
+    // Fan-out path: recipients on the same protocol share the encoded bytes
+    void sendMessage(EncodedMessage message) {
+        try {
+            sendFrame(message.frame(protocol));
+        } catch (IOException e) {
+            logger.error("Error encoding message", e);
+        }
+    }
+
+    private void sendFrame(byte[] frame) {
+        if (!isConnected || connection == null) {
+            return;
+        }
+        if (outbound.offer(frame)) {
+            metrics.recordOutbound(frame.length);
+            connection.requestWrite(outbound);
+        } else {
+            logger.warn("Client {} is not keeping up ({} messages queued), disconnecting",
+                    user != null ? user.getUsername() : connection.getRemoteAddress(), outbound.size());
+            disconnect();
+        }
+    }
+
+    public int getQueuedMessageCount() {
+        return outbound.size();
+    }
+
     public void disconnect() {
         isConnected = false;
+        if (closed.compareAndSet(false, true)) {
+            metrics.connectionClosed();
+        }
         
         if (user != null) {
-            server.removeClient(user.getId());
+            server.removeClient(user.getId(), this);
             logger.info("Client {} disconnected", user.getUsername());
         }
         
         try {
             if (input != null) input.close();
-            if (output != null) output.close();
-            if (clientSocket != null && !clientSocket.isClosed()) {
-                clientSocket.close();
-            }
         } catch (IOException e) {
             logger.error("Error closing client connection", e);
         }
+        outbound.clear();
+        if (connection != null) {
+            connection.close();
+        } else if (clientSocket != null && !clientSocket.isClosed()) {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                logger.error("Error closing client connection", e);
+            }
+        }
     }
 
     public boolean isConnected() {
-        return isConnected && !clientSocket.isClosed();
+        return isConnected && connection != null && connection.isOpen();
     }
 
     public void setUser(User user) {
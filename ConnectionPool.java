@@ -0,0 +1,448 @@
+package com.chatapp.database;
+
+import com.chatapp.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small JDBC connection pool configured from database.properties.
+ *
+ * Callers borrow with {@link #getConnection()} and give the connection back by closing it.
+ * Idle connections are reused most-recently-returned first, validated when they have sat
+ * idle for a while, and each keeps its own cache of prepared statements. The time spent
+ * waiting for a connection and running pooled statements is recorded for the metrics endpoint.
+ */
+public class ConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 30_000;
+    private static final long MAINTENANCE_INTERVAL_SECONDS = 30;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final PoolSettings settings;
+    private final LinkedBlockingDeque<PhysicalConnection> idle;
+    private final Set<PhysicalConnection> borrowed;
+    private final Semaphore permits;
+    private final ScheduledExecutorService maintenance;
+    private final LatencyHistogram acquireLatency = new LatencyHistogram();
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+    private final LatencyHistogram updateLatency = new LatencyHistogram();
+    private volatile boolean isClosed;
+
+    public ConnectionPool(String url, String username, String password, PoolSettings settings) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.settings = settings;
+        this.idle = new LinkedBlockingDeque<>();
+        this.borrowed = ConcurrentHashMap.newKeySet();
+        this.permits = new Semaphore(settings.getMaxActive(), true);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-pool-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the initial connections and starts the background leak check and idle top-up.
+     */
+    public void start() {
+        fillIdle(settings.getInitialSize());
+        maintenance.scheduleWithFixedDelay(this::maintain,
+            MAINTENANCE_INTERVAL_SECONDS, MAINTENANCE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        logger.info("Connection pool started: {} idle, maxActive={}", idle.size(), settings.getMaxActive());
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (isClosed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(settings.getMaxWaitMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + settings.getMaxWaitMillis()
+                    + " ms waiting for a database connection (maxActive=" + settings.getMaxActive() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PhysicalConnection physical = takeIdle();
+            if (physical == null) {
+                physical = open();
+            }
+            physical.onBorrow(settings.getLeakDetectionThresholdMillis() > 0);
+            borrowed.add(physical);
+            acquireLatency.recordSince(start);
+            return physical.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PhysicalConnection takeIdle() {
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            if (isUsable(physical)) {
+                return physical;
+            }
+            physical.closeQuietly();
+        }
+        return null;
+    }
+
+    private boolean isUsable(PhysicalConnection physical) {
+        if (System.currentTimeMillis() - physical.lastUsed < VALIDATE_AFTER_IDLE_MILLIS) {
+            return true;
+        }
+        try {
+            return physical.connection.isValid(settings.getValidationTimeoutSeconds());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PhysicalConnection open() throws SQLException {
+        return new PhysicalConnection(DriverManager.getConnection(url, username, password),
+            settings.getStatementCacheSize());
+    }
+
+    private void release(PhysicalConnection physical) {
+        borrowed.remove(physical);
+        try {
+            if (isClosed || !physical.reset() || idle.size() >= settings.getMaxIdle()) {
+                physical.closeQuietly();
+            } else {
+                physical.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(physical);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void fillIdle(int target) {
+        while (!isClosed && idle.size() < target && idle.size() + borrowed.size() < settings.getMaxActive()) {
+            try {
+                idle.offerLast(open());
+            } catch (SQLException e) {
+                logger.warn("Could not open pooled connection: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void maintain() {
+        long threshold = settings.getLeakDetectionThresholdMillis();
+        if (threshold > 0) {
+            long now = System.currentTimeMillis();
+            for (PhysicalConnection physical : borrowed) {
+                if (!physical.leakReported && now - physical.borrowedAt > threshold) {
+                    physical.leakReported = true;
+                    logger.warn("Connection borrowed {} ms ago has not been returned, possible leak",
+                        now - physical.borrowedAt, physical.borrowSite);
+                }
+            }
+        }
+        fillIdle(settings.getMinIdle());
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public LatencyHistogram getAcquireLatency() {
+        return acquireLatency;
+    }
+
+    // executeQuery on pooled prepared statements
+    public LatencyHistogram getQueryLatency() {
+        return queryLatency;
+    }
+
+    // execute, executeUpdate and executeBatch on pooled prepared statements
+    public LatencyHistogram getUpdateLatency() {
+        return updateLatency;
+    }
+
+    public void close() {
+        isClosed = true;
+        maintenance.shutdownNow();
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            physical.closeQuietly();
+        }
+    }
+
+    /**
+     * One JDBC connection owned by the pool, with its prepared statement cache.
+     */
+    private final class PhysicalConnection {
+        private final Connection connection;
+        private final Map<String, CachedStatement> statements;
+        private volatile long lastUsed;
+        private volatile long borrowedAt;
+        private volatile Exception borrowSite;
+        private volatile boolean leakReported;
+
+        PhysicalConnection(Connection connection, int cacheSize) {
+            this.connection = connection;
+            this.lastUsed = System.currentTimeMillis();
+            // Access-ordered so the least recently used statement is closed first
+            this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() <= cacheSize) {
+                        return false;
+                    }
+                    eldest.getValue().evict();
+                    return true;
+                }
+            };
+        }
+
+        void onBorrow(boolean trackSite) {
+            borrowedAt = System.currentTimeMillis();
+            borrowSite = trackSite ? new Exception("Connection borrowed here") : null;
+            leakReported = false;
+        }
+
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, new Handle(this));
+        }
+
+        PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            if (settings.getStatementCacheSize() <= 0) {
+                return connection.prepareStatement(sql, autoGeneratedKeys);
+            }
+            String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "keys:" + sql : sql;
+            CachedStatement cached = statements.get(key);
+            if (cached != null && cached.inUse) {
+                // Same SQL is already open on this connection; hand out a plain statement
+                return connection.prepareStatement(sql, autoGeneratedKeys);
+            }
+            if (cached == null || cached.isBroken()) {
+                if (cached != null) {
+                    statements.remove(key);
+                    cached.evict();
+                }
+                cached = new CachedStatement(connection.prepareStatement(sql, autoGeneratedKeys));
+                statements.put(key, cached);
+            }
+            return cached.checkOut(queryLatency, updateLatency);
+        }
+
+        // Undo whatever the borrower left behind; false means the connection should be discarded
+        boolean reset() {
+            try {
+                if (connection.isClosed()) {
+                    return false;
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                connection.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                logger.warn("Discarding pooled connection that failed to reset: {}", e.getMessage());
+                return false;
+            }
+        }
+
+        void closeQuietly() {
+            for (CachedStatement cached : statements.values()) {
+                cached.evict();
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.debug("Error closing pooled connection: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The Connection a borrower sees. close() returns the physical connection to the pool
+     * and prepareStatement(String[, int]) goes through the statement cache; everything else is
+     * passed straight through until the handle is closed.
+     */
+    private final class Handle implements InvocationHandler {
+        private PhysicalConnection physical;
+
+        Handle(PhysicalConnection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (physical != null) {
+                        PhysicalConnection returned = physical;
+                        physical = null;
+                        release(returned);
+                    }
+                    return null;
+                case "isClosed":
+                    return physical == null || physical.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + (physical != null ? physical.connection : "returned") + "]";
+                default:
+                    break;
+            }
+            if (physical == null) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            if ("prepareStatement".equals(name) && args.length == 1) {
+                return physical.prepare((String) args[0], Statement.NO_GENERATED_KEYS);
+            }
+            if ("prepareStatement".equals(name) && args.length == 2 && args[1] instanceof Integer) {
+                return physical.prepare((String) args[0], (Integer) args[1]);
+            }
+            try {
+                return method.invoke(physical.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * A prepared statement kept open across borrows. Closing the statement a borrower got
+     * only clears its parameters; the real statement is closed when evicted from the cache.
+     */
+    private static final class CachedStatement {
+        private final PreparedStatement statement;
+        private volatile boolean inUse;
+        private volatile boolean evicted;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        boolean isBroken() {
+            try {
+                return statement.isClosed();
+            } catch (SQLException e) {
+                return true;
+            }
+        }
+
+        PreparedStatement checkOut(LatencyHistogram queryLatency, LatencyHistogram updateLatency) {
+            inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, new StatementHandle(this, queryLatency, updateLatency));
+        }
+
+        void checkIn() throws SQLException {
+            inUse = false;
+            if (evicted) {
+                close();
+            } else {
+                statement.clearParameters();
+                statement.clearBatch();
+            }
+        }
+
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                logger.debug("Error closing cached statement: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static final class StatementHandle implements InvocationHandler {
+        private CachedStatement cached;
+        private final LatencyHistogram queryLatency;
+        private final LatencyHistogram updateLatency;
+
+        StatementHandle(CachedStatement cached, LatencyHistogram queryLatency, LatencyHistogram updateLatency) {
+            this.cached = cached;
+            this.queryLatency = queryLatency;
+            this.updateLatency = updateLatency;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (cached != null) {
+                        CachedStatement returned = cached;
+                        cached = null;
+                        returned.checkIn();
+                    }
+                    return null;
+                case "isClosed":
+                    return cached == null || cached.statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (cached == null) {
+                throw new SQLException("Statement is closed");
+            }
+            LatencyHistogram latency = !name.startsWith("execute") ? null
+                : "executeQuery".equals(name) ? queryLatency : updateLatency;
+            long start = latency != null ? System.nanoTime() : 0;
+            try {
+                return method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if (latency != null) {
+                    latency.recordSince(start);
+                }
+            }
+        }
+    }
+}
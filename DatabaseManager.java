@@ -11,12 +11,25 @@ import java.io.IOException;
 public class DatabaseManager {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseManager.class);
     private static final String CONFIG_FILE = "database.properties";
-    private static final String DEFAULT_URL = "jdbc:mysql://localhost:3306/chatapp?useSSL=false&serverTimezone=UTC";
+    private static final String DEFAULT_URL = "jdbc:mysql://localhost:3306/chatapp?useSSL=false&serverTimezone=UTC&rewriteBatchedStatements=true";
     private static final String DEFAULT_USER = "root";
     private static final String DEFAULT_PASSWORD = "password";
+
+    // Schema changes applied after the CREATE TABLE statements, in order. The number of
+    // migrations applied so far is kept in schema_version, so each one runs exactly once.
+    private static final String[] MIGRATIONS = {
+        // 1: history pages are read per chat, newest first, with a (timestamp, id) cursor
+        "CREATE INDEX idx_messages_chat_time ON messages (chat_id, timestamp, id)",
+        // 2, 3: per-chat sequence numbers, looked up by chat when a chat is first sequenced
+        "ALTER TABLE messages ADD COLUMN seq BIGINT NOT NULL DEFAULT 0",
+        "CREATE INDEX idx_messages_chat_seq ON messages (chat_id, seq)",
+        // 4: a user's chats are found through chat_participants by user, not by chat
+        "CREATE INDEX idx_participants_user ON chat_participants (user_id, chat_id)",
+        // 5: the highest sequence number each chat may have handed out, reserved in blocks
+        "ALTER TABLE chats ADD COLUMN seq_reserved BIGINT NOT NULL DEFAULT 0"
+    };
     
-    private static DatabaseManager instance;
-    private Connection connection;
+    private ConnectionPool pool;
     private String url;
     private String username;
     private String password;
@@ -26,32 +39,41 @@ public class DatabaseManager {
         initializeDatabase();
     }
 
-    public static synchronized DatabaseManager getInstance() {
-        if (instance == null) {
-            instance = new DatabaseManager();
-        }
-        return instance;
+    // Lazy holder instead of a synchronized getter: the first call still runs the schema
+    // setup once, but later calls from virtual threads never enter a monitor
+    private static class Holder {
+        private static final DatabaseManager INSTANCE = new DatabaseManager();
+    }
+
+    public static DatabaseManager getInstance() {
+        return Holder.INSTANCE;
     }
 
     private void loadConfiguration() {
         Properties props = new Properties();
         try (FileInputStream fis = new FileInputStream(CONFIG_FILE)) {
             props.load(fis);
-            url = props.getProperty("db.url", DEFAULT_URL);
-            username = props.getProperty("db.username", DEFAULT_USER);
-            password = props.getProperty("db.password", DEFAULT_PASSWORD);
         } catch (IOException e) {
             logger.warn("Could not load database configuration file, using defaults: {}", e.getMessage());
-            url = DEFAULT_URL;
-            username = DEFAULT_USER;
-            password = DEFAULT_PASSWORD;
         }
+        // As with server.properties, -Ddb.* system properties win over the file
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("db.")) {
+                props.setProperty(key, System.getProperty(key));
+            }
+        }
+        url = props.getProperty("db.url", DEFAULT_URL);
+        username = props.getProperty("db.username", DEFAULT_USER);
+        password = props.getProperty("db.password", DEFAULT_PASSWORD);
+        pool = new ConnectionPool(url, username, password, new PoolSettings(props));
     }
 
     private void initializeDatabase() {
         try {
             createDatabaseIfNotExists();
+            pool.start();
             createTables();
+            migrateSchema();
             logger.info("Database initialized successfully");
         } catch (SQLException e) {
             logger.error("Failed to initialize database", e);
@@ -59,6 +81,10 @@ public class DatabaseManager {
     }
 
     private void createDatabaseIfNotExists() throws SQLException {
+        // Only MySQL needs the schema created up front; embedded databases create it on connect
+        if (!url.startsWith("jdbc:mysql:")) {
+            return;
+        }
         String baseUrl = url.substring(0, url.lastIndexOf("/"));
         try (Connection conn = DriverManager.getConnection(baseUrl, username, password)) {
             String sql = "CREATE DATABASE IF NOT EXISTS chatapp";
@@ -129,24 +155,38 @@ public class DatabaseManager {
         }
     }
 
-    public Connection getConnection() throws SQLException {
-        if (connection == null || connection.isClosed()) {
-            connection = DriverManager.getConnection(url, username, password);
-        }
-        return connection;
-    }
+    private void migrateSchema() throws SQLException {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (version INT NOT NULL)");
+
+            int version = 0;
+            try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+                if (rs.next()) {
+                    version = rs.getInt(1);
+                }
+            }
 
-    public void closeConnection() {
-        if (connection != null) {
-            try {
-                connection.close();
-            } catch (SQLException e) {
-                logger.error("Error closing database connection", e);
+            for (int i = version; i < MIGRATIONS.length; i++) {
+                stmt.execute(MIGRATIONS[i]);
+                stmt.executeUpdate("INSERT INTO schema_version (version) VALUES (" + (i + 1) + ")");
+                logger.info("Applied schema migration {}", i + 1);
             }
         }
     }
 
+    /**
+     * Borrows a pooled connection. Callers must close it (try-with-resources) to hand it back.
+     */
+    public Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
     public void shutdown() {
-        closeConnection();
+        pool.close();
     }
 }
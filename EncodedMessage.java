@@ -0,0 +1,41 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+import com.chatapp.protocol.WireProtocol;
+
+import java.io.IOException;
+
+/**
+ * A message being fanned out, with its wire encodings made on first use. Recipients that
+ * speak the same protocol share one byte array, so a broadcast encodes at most once per
+ * protocol no matter how many clients it reaches.
+ */
+public class EncodedMessage {
+    private final Message message;
+    // Benign race: two threads may both encode, and either result is the same bytes
+    private volatile byte[] json;
+    private volatile byte[] binary;
+
+    public EncodedMessage(Message message) {
+        this.message = message;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public byte[] frame(WireProtocol protocol) throws IOException {
+        if (protocol == WireProtocol.BINARY) {
+            byte[] frame = binary;
+            if (frame == null) {
+                binary = frame = protocol.encode(message);
+            }
+            return frame;
+        }
+        byte[] frame = json;
+        if (frame == null) {
+            json = frame = protocol.encode(message);
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,23 @@
+package com.chatapp.server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks roughly one in every `rate` events of a high-volume kind to be logged. The pick is a
+ * thread-local random draw, so sampling touches no shared state and allocates nothing.
+ */
+public class LogSampler {
+    private final int rate;
+
+    public LogSampler(int rate) {
+        this.rate = Math.max(1, rate);
+    }
+
+    public boolean sample() {
+        return rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+}
@@ -1,7 +1,9 @@
 package com.chatapp.controller;
 
 import com.chatapp.Main;
+import com.chatapp.client.ChatClient;
 import com.chatapp.model.User;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -12,6 +14,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class LoginController {
     private static final Logger logger = LoggerFactory.getLogger(LoginController.class);
@@ -53,14 +57,24 @@ public class LoginController {
             return;
         }
         
-        // TODO: Implement actual authentication
-        // For now, just simulate successful login
-        if (authenticateUser(username, password)) {
-            User user = new User(username, "", ""); // Create user object
-            openChatWindow(user);
-        } else {
-            showStatus("Invalid username or password", false);
-        }
+        // The server checks the password; connecting and waiting for it stay off the FX thread
+        loginButton.setDisable(true);
+        ChatClient chatClient = new ChatClient();
+        CompletableFuture.supplyAsync(() -> authenticateUser(chatClient, username, password))
+            .whenComplete((user, error) -> Platform.runLater(() -> {
+                loginButton.setDisable(false);
+                if (user != null) {
+                    openChatWindow(user, chatClient);
+                    return;
+                }
+                chatClient.disconnect();
+                if (error != null) {
+                    logger.error("Error logging in user {}", username, error);
+                    showStatus("Could not reach the server, please try again", false);
+                } else {
+                    showStatus("Invalid username or password", false);
+                }
+            }));
     }
 
     private void handleRegister() {
@@ -81,19 +95,25 @@ public class LoginController {
         }
     }
 
-    private boolean authenticateUser(String username, String password) {
-        // TODO: Implement actual database authentication
-        // For demo purposes, accept any non-empty credentials
-        return !username.isEmpty() && !password.isEmpty();
+    // The logged-in user, or null if the username is unknown or the password doesn't match
+    private User authenticateUser(ChatClient chatClient, String username, String password) {
+        try {
+            if (!chatClient.connect()) {
+                throw new IOException("Could not connect to the chat server");
+            }
+            return chatClient.authenticate(username, password);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
     }
 
-    private void openChatWindow(User user) {
+    private void openChatWindow(User user, ChatClient chatClient) {
         try {
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/ChatView.fxml"));
             Parent root = loader.load();
             
             ChatController controller = loader.getController();
-            controller.setUser(user);
+            controller.setSession(user, chatClient);
             controller.setStage(stage);
             
             Scene scene = new Scene(root);
@@ -104,6 +124,7 @@ public class LoginController {
             
         } catch (IOException e) {
             logger.error("Error loading chat view", e);
+            chatClient.disconnect();
             showStatus("Error loading chat view", false);
         }
     }
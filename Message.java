@@ -1,19 +1,46 @@
 package com.chatapp.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.time.LocalDateTime;
+import java.util.List;
 
 public class Message {
     private int id;
     private int senderId;
     private int chatId;
+    // Assigned by the server: 1, 2, 3... within each chat, in delivery order (0 = not yet sequenced)
+    private long sequence;
     private String content;
     private MessageType type;
     private LocalDateTime timestamp;
     private boolean isRead;
     private String senderUsername;
+    // Only set on a REGISTER request: the new user's email
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String email;
+    // Only set on HISTORY_RESPONSE: a page of the chat's messages, oldest first. In a history
+    // request and its response, id is the cursor: the page ends before that message (0 = newest)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<Message> history;
 
     public enum MessageType {
-        TEXT, IMAGE, FILE, SYSTEM
+        TEXT, IMAGE, FILE, SYSTEM, HISTORY_REQUEST, HISTORY_RESPONSE,
+        // Server to client: history holds one entry per user whose presence changed, with that
+        // user as sender and ONLINE or OFFLINE as content
+        PRESENCE,
+        // Client to server after a reconnect: history holds one entry per chat with the last
+        // sequence seen. Server to client: history holds the messages of one chat that were missed
+        RESUME,
+        // Client to server: senderUsername and the password as content, or after a reconnect
+        // senderId and the session token as content. Server to client: the user's id and name
+        // with a session token as content, or senderId 0 if refused (content UNAVAILABLE when
+        // the server couldn't check, rather than the credentials being wrong)
+        AUTH,
+        // Client to server: senderUsername, the password as content and email. Server to client:
+        // the new user's id and name, or senderId 0 with TAKEN, INVALID or UNAVAILABLE as
+        // content. Registering doesn't log the connection in
+        REGISTER
     }
 
     public Message() {}
@@ -37,6 +64,9 @@ public class Message {
     public int getChatId() { return chatId; }
     public void setChatId(int chatId) { this.chatId = chatId; }
 
+    public long getSequence() { return sequence; }
+    public void setSequence(long sequence) { this.sequence = sequence; }
+
     public String getContent() { return content; }
     public void setContent(String content) { this.content = content; }
 
@@ -52,12 +82,19 @@ public class Message {
     public String getSenderUsername() { return senderUsername; }
     public void setSenderUsername(String senderUsername) { this.senderUsername = senderUsername; }
 
+    public String getEmail() { return email; }
+    public void setEmail(String email) { this.email = email; }
+
+    public List<Message> getHistory() { return history; }
+    public void setHistory(List<Message> history) { this.history = history; }
+
     @Override
     public String toString() {
         return "Message{" +
                 "id=" + id +
                 ", senderId=" + senderId +
                 ", chatId=" + chatId +
+                ", sequence=" + sequence +
                 ", content='" + content + '\'' +
                 ", type=" + type +
                 ", timestamp=" + timestamp +
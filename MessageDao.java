@@ -0,0 +1,161 @@
+package com.chatapp.database;
+
+import com.chatapp.model.Message;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads stored messages. History pages use a keyset cursor on (timestamp, id) over
+ * idx_messages_chat_time, so every page is one index range scan of at most `limit` rows
+ * however far back it is; there is no OFFSET. Writes go through MessagePersister.
+ */
+public class MessageDao {
+    private static final String COLUMNS =
+        "m.id, m.sender_id, m.chat_id, m.seq, m.content, m.type, m.timestamp, m.is_read, u.username";
+    // The sender's name is shown next to every message, so it comes with the row
+    private static final String FROM = " FROM messages m JOIN users u ON u.id = m.sender_id ";
+    private static final String SELECT_LATEST =
+        "SELECT " + COLUMNS + FROM + "WHERE m.chat_id = ? " +
+        "ORDER BY m.timestamp DESC, m.id DESC LIMIT ?";
+    // The cursor row is joined in rather than looked up first, so a page is one round trip.
+    // Its timestamp comes from the stored row, not the client, whose copy may be more precise.
+    private static final String SELECT_BEFORE =
+        "SELECT " + COLUMNS + FROM +
+        "JOIN messages c ON c.id = ? AND c.chat_id = m.chat_id " +
+        "WHERE m.chat_id = ? AND (m.timestamp < c.timestamp OR (m.timestamp = c.timestamp AND m.id < c.id)) " +
+        "ORDER BY m.timestamp DESC, m.id DESC LIMIT ?";
+    private static final String SELECT_AFTER_SEQUENCE =
+        "SELECT " + COLUMNS + FROM + "WHERE m.chat_id = ? AND m.seq > ? " +
+        "ORDER BY m.seq DESC LIMIT ?";
+    private static final String SELECT_LAST_SEQUENCE = "SELECT MAX(seq) FROM messages WHERE chat_id = ?";
+    // Fixed-width IN list so every chunk reuses the one cached statement; short chunks
+    // repeat their last id in the unused slots
+    private static final int IDS_PER_QUERY = 32;
+    private static final String SELECT_BY_IDS =
+        "SELECT " + COLUMNS + FROM + "WHERE m.id IN (" +
+        String.join(", ", Collections.nCopies(IDS_PER_QUERY, "?")) + ")";
+
+    private final ConnectionPool pool;
+
+    public MessageDao(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * The newest messages of a chat, oldest first.
+     */
+    public List<Message> getLatest(int chatId, int limit) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_LATEST)) {
+            stmt.setInt(1, chatId);
+            stmt.setInt(2, limit);
+            return readNewestFirst(stmt, limit);
+        }
+    }
+
+    /**
+     * The messages of a chat that come before message beforeId, oldest first. An empty list
+     * means the start of the chat was reached (or beforeId isn't a message of this chat).
+     */
+    public List<Message> getBefore(int chatId, int beforeId, int limit) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_BEFORE)) {
+            stmt.setInt(1, beforeId);
+            stmt.setInt(2, chatId);
+            stmt.setInt(3, limit);
+            return readNewestFirst(stmt, limit);
+        }
+    }
+
+    /**
+     * The newest messages of a chat with a sequence number above afterSequence, at most limit
+     * of them, oldest first. Backed by the idx_messages_chat_seq index.
+     */
+    public List<Message> getAfterSequence(int chatId, long afterSequence, int limit) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_AFTER_SEQUENCE)) {
+            stmt.setInt(1, chatId);
+            stmt.setLong(2, afterSequence);
+            stmt.setInt(3, limit);
+            return readNewestFirst(stmt, limit);
+        }
+    }
+
+    /**
+     * The stored messages with the given ids, in id order, each once. Ids that don't exist are
+     * skipped.
+     */
+    public List<Message> getByIds(int... messageIds) throws SQLException {
+        if (messageIds.length == 0) {
+            return Collections.emptyList();
+        }
+        // Sorted and without repeats, so an id can't be asked for in two chunks
+        int[] ids = Arrays.stream(messageIds).sorted().distinct().toArray();
+        List<Message> messages = new ArrayList<>(ids.length);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_BY_IDS)) {
+            for (int from = 0; from < ids.length; from += IDS_PER_QUERY) {
+                int to = Math.min(from + IDS_PER_QUERY, ids.length);
+                for (int slot = 0; slot < IDS_PER_QUERY; slot++) {
+                    stmt.setInt(slot + 1, ids[Math.min(from + slot, to - 1)]);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        messages.add(map(rs));
+                    }
+                }
+            }
+        }
+        messages.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        return messages;
+    }
+
+    /**
+     * The highest sequence number stored for a chat, 0 if it has no messages.
+     */
+    public long getLastSequence(int chatId) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_LAST_SEQUENCE)) {
+            stmt.setInt(1, chatId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private static List<Message> readNewestFirst(PreparedStatement stmt, int limit) throws SQLException {
+        List<Message> messages = new ArrayList<>(limit);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                messages.add(map(rs));
+            }
+        }
+        // Read newest first to walk the index backwards; pages are returned in chat order
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    // By position, in COLUMNS order
+    private static Message map(ResultSet rs) throws SQLException {
+        Message message = new Message();
+        message.setId(rs.getInt(1));
+        message.setSenderId(rs.getInt(2));
+        message.setChatId(rs.getInt(3));
+        message.setSequence(rs.getLong(4));
+        message.setContent(rs.getString(5));
+        message.setType(Message.MessageType.valueOf(rs.getString(6)));
+        Timestamp timestamp = rs.getTimestamp(7);
+        message.setTimestamp(timestamp != null ? timestamp.toLocalDateTime() : null);
+        message.setRead(rs.getBoolean(8));
+        message.setSenderUsername(rs.getString(9));
+        return message;
+    }
+}
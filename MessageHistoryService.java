@@ -0,0 +1,43 @@
+package com.chatapp.server;
+
+import com.chatapp.database.DatabaseManager;
+import com.chatapp.database.MessageDao;
+import com.chatapp.model.Message;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The server's view of stored history. Pages come from MessageDao, each one a single indexed
+ * query with a keyset cursor on (timestamp, id); there is no OFFSET.
+ */
+public class MessageHistoryService {
+    private final MessageDao messageDao;
+
+    public MessageHistoryService(DatabaseManager databaseManager) {
+        this.messageDao = new MessageDao(databaseManager.getPool());
+    }
+
+    /**
+     * The newest messages of a chat, oldest first.
+     */
+    public List<Message> getLatest(int chatId, int limit) throws SQLException {
+        return messageDao.getLatest(chatId, limit);
+    }
+
+    /**
+     * The messages of a chat that come before message beforeId, oldest first. An empty list
+     * means the start of the chat was reached (or beforeId isn't a message of this chat).
+     */
+    public List<Message> getBefore(int chatId, int beforeId, int limit) throws SQLException {
+        return messageDao.getBefore(chatId, beforeId, limit);
+    }
+
+    /**
+     * The newest messages of a chat with a sequence number above afterSequence, at most limit
+     * of them, oldest first.
+     */
+    public List<Message> getAfterSequence(int chatId, long afterSequence, int limit) throws SQLException {
+        return messageDao.getAfterSequence(chatId, afterSequence, limit);
+    }
+}
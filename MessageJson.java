@@ -0,0 +1,155 @@
+package com.chatapp.protocol;
+
+import com.chatapp.model.Message;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateTimeDeserializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * The one Jackson configuration for messages, shared by the server and the client. Mappers
+ * are expensive to build and fill their serializer caches lazily, so every connection uses
+ * the same reader and writer; both are immutable and thread-safe. Timestamps are written as
+ * ISO-8601 strings. Unknown properties are ignored, so older peers can read messages from
+ * newer ones.
+ */
+public final class MessageJson {
+    private static final ObjectMapper MAPPER = JsonMapper.builder()
+        .addModule(new JavaTimeModule())
+        .addModule(new SimpleModule().addDeserializer(LocalDateTime.class, new TimestampDeserializer()))
+        .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+        .build();
+    private static final ObjectReader READER = MAPPER.readerFor(Message.class);
+    private static final ObjectWriter WRITER = MAPPER.writerFor(Message.class);
+
+    private MessageJson() {}
+
+    public static ObjectReader reader() {
+        return READER;
+    }
+
+    public static ObjectWriter writer() {
+        return WRITER;
+    }
+
+    public static Message read(String json) throws IOException {
+        return READER.readValue(json);
+    }
+
+    public static Message read(byte[] json) throws IOException {
+        return READER.readValue(json);
+    }
+
+    /**
+     * Parses a stream of newline-delimited messages as they arrive, straight from the bytes.
+     * There is no line String in between, and the parser's buffers are Jackson's recycled ones.
+     * A value that is valid JSON but not a valid message fails nextValue with a
+     * JsonMappingException, and the iterator goes on with the next value. A syntax error
+     * leaves the stream unusable, so the caller should drop the connection.
+     */
+    public static MappingIterator<Message> readStream(InputStream in) throws IOException {
+        return READER.readValues(in);
+    }
+
+    public static byte[] write(Message message) throws IOException {
+        return WRITER.writeValueAsBytes(message);
+    }
+
+    /**
+     * Round-trips a message that uses every field, so the first client doesn't pay for
+     * building the serializers and deserializers. The server calls this at startup.
+     */
+    public static void warmUp() {
+        Message entry = new Message(1, 1, "warm-up", Message.MessageType.TEXT);
+        entry.setId(1);
+        entry.setSenderUsername("warm-up");
+        Message message = new Message(1, 1, "warm-up", Message.MessageType.HISTORY_RESPONSE);
+        message.setHistory(List.of(entry));
+        try {
+            READER.readValue(WRITER.writeValueAsBytes(message));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Message JSON mapping is broken", e);
+        }
+    }
+
+    /**
+     * Reads the timestamps this class writes (yyyy-MM-ddTHH:mm:ss[.fraction]) straight out
+     * of the parser's character buffer. DateTimeFormatter allocates more per timestamp than
+     * the rest of a message put together; anything else goes to the JavaTimeModule parser.
+     */
+    private static final class TimestampDeserializer extends JsonDeserializer<LocalDateTime> {
+        @Override
+        public LocalDateTime deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (p.hasToken(JsonToken.VALUE_STRING)) {
+                LocalDateTime parsed = parse(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+                if (parsed != null) {
+                    return parsed;
+                }
+            }
+            return LocalDateTimeDeserializer.INSTANCE.deserialize(p, ctxt);
+        }
+
+        private static LocalDateTime parse(char[] text, int offset, int length) {
+            if (length < 19 || text[offset + 4] != '-' || text[offset + 7] != '-' || text[offset + 10] != 'T'
+                    || text[offset + 13] != ':' || text[offset + 16] != ':') {
+                return null;
+            }
+            int year = digits(text, offset, 4);
+            int month = digits(text, offset + 5, 2);
+            int day = digits(text, offset + 8, 2);
+            int hour = digits(text, offset + 11, 2);
+            int minute = digits(text, offset + 14, 2);
+            int second = digits(text, offset + 17, 2);
+            int nanos = 0;
+            if (length > 19) {
+                int fraction = length - 20;
+                if (text[offset + 19] != '.' || fraction < 1 || fraction > 9) {
+                    return null;
+                }
+                nanos = digits(text, offset + 20, fraction);
+                for (int i = fraction; i < 9 && nanos >= 0; i++) {
+                    nanos *= 10;
+                }
+            }
+            if ((year | month | day | hour | minute | second | nanos) < 0) {
+                return null;
+            }
+            try {
+                return LocalDateTime.of(year, month, day, hour, minute, second, nanos);
+            } catch (DateTimeException e) {
+                return null;
+            }
+        }
+
+        // The value of count decimal digits, or -1 if any of them isn't one
+        private static int digits(char[] text, int offset, int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                int digit = text[offset + i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.chatapp.server;
+
+import com.chatapp.database.ConnectionPool;
+import com.chatapp.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind message storage. Messages are queued by the routing stage and a single
+ * persister thread writes them with JDBC batch inserts, one transaction per batch. The
+ * chat's last_message columns are updated once per chat per batch, not once per message.
+ * A batch that fails is written again row by row, so a bad row costs only itself.
+ */
+public class MessagePersister {
+    private static final Logger logger = LoggerFactory.getLogger(MessagePersister.class);
+    private static final String INSERT_MESSAGE =
+        "INSERT INTO messages (sender_id, chat_id, content, type, timestamp, seq) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_CHAT_LAST_MESSAGE =
+        "UPDATE chats SET last_message = ?, last_message_time = ? WHERE id = ?";
+
+    public enum Durability {
+        /** Deliver right away; the message is written with the next batch. */
+        ASYNC,
+        /** Deliver only after the batch holding the message has committed. */
+        GROUP_COMMIT
+    }
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Durability durability;
+    private final BlockingQueue<PendingMessage> queue;
+    // One permit per message the queue or the batch being written can still take
+    private final Semaphore slots;
+    private final Thread thread;
+    private volatile boolean isRunning;
+
+    public MessagePersister(ConnectionPool pool, int batchSize, long flushIntervalMillis,
+                            int queueCapacity, Durability durability) {
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.durability = durability;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.slots = new Semaphore(queueCapacity);
+        this.thread = new Thread(this::run, "message-persister");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        isRunning = true;
+        thread.start();
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Takes room for one message in the queue without waiting. Returns false when the queue
+     * is full, so a slow database turns senders away instead of growing the heap or stalling
+     * the caller. Room that was taken must be used by {@link #persist} or given back with
+     * {@link #release}.
+     */
+    public boolean tryReserve() {
+        return isRunning && slots.tryAcquire();
+    }
+
+    /**
+     * Gives back room taken by {@link #tryReserve} for a message that won't be persisted.
+     */
+    public void release() {
+        slots.release();
+    }
+
+    /**
+     * Queues a message for storage in room taken by {@link #tryReserve}, and never blocks.
+     * The future completes with a copy of the message carrying its generated id once it has
+     * committed; the queued message itself is never modified.
+     */
+    public CompletableFuture<Message> persist(Message message) {
+        PendingMessage pending = new PendingMessage(message);
+        if (!isRunning || !queue.offer(pending)) {
+            slots.release();
+            pending.future.completeExceptionally(
+                new IllegalStateException("Message store is not accepting messages"));
+        }
+        return pending.future;
+    }
+
+    private void run() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (isRunning || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - batch.size());
+
+                // In ASYNC mode nobody waits on the batch, so linger to make it bigger.
+                // GROUP_COMMIT writes whatever piled up while the previous batch was committing.
+                if (durability == Durability.ASYNC) {
+                    long deadline = System.nanoTime() + flushIntervalNanos;
+                    long remaining;
+                    while (batch.size() < batchSize && (remaining = deadline - System.nanoTime()) > 0) {
+                        PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, batchSize - batch.size());
+                    }
+                }
+
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                isRunning = false;
+            } finally {
+                slots.release(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingMessage> batch) {
+        int[] ids;
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                ids = insertMessages(conn, batch);
+                updateLastMessages(conn, batch);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                // One bad row fails the whole batch; write the rows on their own so only it is lost
+                logger.warn("Failed to store batch of {} messages, retrying them one at a time: {}",
+                        batch.size(), e.getMessage());
+                writeEach(conn, batch);
+                return;
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to store batch of {} messages", batch.size(), e);
+            for (PendingMessage pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            complete(batch.get(i), ids[i]);
+        }
+    }
+
+    private void writeEach(Connection conn, List<PendingMessage> batch) {
+        for (PendingMessage pending : batch) {
+            List<PendingMessage> single = Collections.singletonList(pending);
+            try {
+                int[] ids = insertMessages(conn, single);
+                updateLastMessages(conn, single);
+                conn.commit();
+                complete(pending, ids[0]);
+            } catch (SQLException e) {
+                Message message = pending.message;
+                logger.error("Failed to store message {} of chat {} from user {}, dropping it",
+                        message.getSequence(), message.getChatId(), message.getSenderId(), e);
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackError) {
+                    logger.debug("Rollback failed", rollbackError);
+                }
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    // The queued message may already be shared with fan-out and history readers, so the
+    // generated id goes on a copy rather than being written into it from this thread
+    private static void complete(PendingMessage pending, int id) {
+        Message message = pending.message;
+        Message stored = new Message();
+        stored.setId(id);
+        stored.setSenderId(message.getSenderId());
+        stored.setChatId(message.getChatId());
+        stored.setSequence(message.getSequence());
+        stored.setContent(message.getContent());
+        stored.setType(message.getType());
+        stored.setTimestamp(message.getTimestamp());
+        stored.setRead(message.isRead());
+        stored.setSenderUsername(message.getSenderUsername());
+        pending.future.complete(stored);
+    }
+
+    // Returns the generated ids, in batch order
+    private int[] insertMessages(Connection conn, List<PendingMessage> batch) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(INSERT_MESSAGE, Statement.RETURN_GENERATED_KEYS)) {
+            for (PendingMessage pending : batch) {
+                Message message = pending.message;
+                stmt.setInt(1, message.getSenderId());
+                stmt.setInt(2, message.getChatId());
+                stmt.setString(3, message.getContent());
+                stmt.setString(4, message.getType().name());
+                stmt.setTimestamp(5, Timestamp.valueOf(timestampOf(message)));
+                stmt.setLong(6, message.getSequence());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+
+            // Generated keys come back in insert order
+            int[] ids = new int[batch.size()];
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                int index = 0;
+                while (keys.next() && index < ids.length) {
+                    ids[index++] = keys.getInt(1);
+                }
+            }
+            return ids;
+        }
+    }
+
+    private void updateLastMessages(Connection conn, List<PendingMessage> batch) throws SQLException {
+        // Only the newest message of each chat in the batch matters
+        Map<Integer, Message> lastByChat = new LinkedHashMap<>();
+        for (PendingMessage pending : batch) {
+            lastByChat.put(pending.message.getChatId(), pending.message);
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(UPDATE_CHAT_LAST_MESSAGE)) {
+            for (Message message : lastByChat.values()) {
+                stmt.setString(1, message.getContent());
+                stmt.setTimestamp(2, Timestamp.valueOf(timestampOf(message)));
+                stmt.setInt(3, message.getChatId());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static LocalDateTime timestampOf(Message message) {
+        return message.getTimestamp() != null ? message.getTimestamp() : LocalDateTime.now();
+    }
+
+    /**
+     * Stops accepting messages and waits for everything already queued to be written.
+     */
+    public void shutdown() {
+        isRunning = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            logger.warn("{} messages were not stored before shutdown", queue.size());
+        }
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    private static final class PendingMessage {
+        private final Message message;
+        private final CompletableFuture<Message> future;
+
+        PendingMessage(Message message) {
+            this.message = message;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers chat messages off the sender's read loop. Chats are striped over single-threaded
+ * executors, so messages of one chat are delivered in the order they were routed while
+ * different chats fan out in parallel.
+ */
+public class MessageRouter {
+    private static final Logger logger = LoggerFactory.getLogger(MessageRouter.class);
+
+    private final ChatServer server;
+    private final ChatMembershipIndex membershipIndex;
+    private final MessagePersister persister;
+    private final RecentHistoryCache historyCache;
+    private final ShardedBroadcaster broadcaster;
+    private final ChatSequencer sequencer;
+    private final ExecutorService[] stripes;
+
+    public MessageRouter(ChatServer server, ChatMembershipIndex membershipIndex,
+                         MessagePersister persister, RecentHistoryCache historyCache,
+                         ShardedBroadcaster broadcaster, ChatSequencer sequencer, int stripeCount) {
+        this.server = server;
+        this.membershipIndex = membershipIndex;
+        this.persister = persister;
+        this.historyCache = historyCache;
+        this.broadcaster = broadcaster;
+        this.sequencer = sequencer;
+        this.stripes = new ExecutorService[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            String name = "chat-router-" + i;
+            stripes[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void route(Message message) {
+        long routedAt = System.nanoTime();
+        stripeFor(message.getChatId()).execute(() -> deliver(message, routedAt));
+    }
+
+    private void deliver(Message message, long routedAt) {
+        int[] members;
+        try {
+            members = membershipIndex.getMembers(message.getChatId());
+        } catch (IllegalStateException e) {
+            logger.error("Could not look up the members of chat {}, dropping a message from user {}",
+                    message.getChatId(), message.getSenderId(), e);
+            server.getMetrics().recordDroppedMessage();
+            return;
+        }
+        if (Arrays.binarySearch(members, message.getSenderId()) < 0) {
+            logger.warn("User {} is not a participant of chat {}, dropping message",
+                    message.getSenderId(), message.getChatId());
+            return;
+        }
+
+        // Room in the store queue is taken before the sequence, so a message turned away while
+        // the database is behind leaves no gap that resuming clients would read as unsent
+        if (!persister.tryReserve()) {
+            if (server.getMessageLogSampler().sample()) {
+                logger.warn("Message store is full, dropping a message to chat {} from user {} (1 in {} logged)",
+                        message.getChatId(), message.getSenderId(), server.getMessageLogSampler().getRate());
+            }
+            server.getMetrics().recordDroppedMessage();
+            return;
+        }
+
+        // The stripe is the chat's only writer, so sequence, timestamp and delivery order agree
+        try {
+            message.setSequence(sequencer.next(message.getChatId()));
+        } catch (IllegalStateException e) {
+            persister.release();
+            logger.error("Could not sequence a message to chat {}, dropping it", message.getChatId(), e);
+            server.getMetrics().recordDroppedMessage();
+            return;
+        }
+        message.setTimestamp(LocalDateTime.now());
+
+        CompletableFuture<Message> stored = persister.persist(message);
+        ExecutorService stripe = stripeFor(message.getChatId());
+        if (persister.getDurability() == MessagePersister.Durability.GROUP_COMMIT) {
+            // The persister completes batches in order and each completion re-enters this
+            // chat's stripe, so the chat's delivery order is unchanged
+            stored.whenComplete((result, error) -> {
+                if (error != null) {
+                    logger.error("Message to chat {} was not stored, not delivering it", message.getChatId());
+                } else {
+                    stripe.execute(() -> fanOut(result, members, routedAt));
+                }
+            });
+        } else {
+            stored.whenComplete((result, error) -> {
+                if (error != null) {
+                    logger.error("Message to chat {} was delivered but not stored", message.getChatId());
+                } else {
+                    // The delivered copy has no id; swap in the stored one so history pages can use it as a cursor
+                    stripe.execute(() -> historyCache.replace(result));
+                }
+            });
+            fanOut(message, members, routedAt);
+        }
+    }
+
+    private void fanOut(Message message, int[] members, long routedAt) {
+        historyCache.add(message);
+
+        // Encoded at most once per wire protocol, then the same bytes go to every recipient. The
+        // sender gets a copy too, in order with the rest, which tells it the assigned sequence
+        broadcaster.broadcast(message.getChatId(), new EncodedMessage(message), members, 0);
+        server.getMetrics().getRouteLatency().recordSince(routedAt);
+    }
+
+    /**
+     * Sends a reconnected client the messages of a chat sequenced after the last one it saw,
+     * in order with the live messages of that chat. Recent gaps come from the history cache;
+     * older ones are read from the database on the calling thread before moving to the stripe,
+     * so the stripe doesn't wait on the query.
+     */
+    public void resume(ClientHandler client, int userId, int chatId, long lastSequence) {
+        // A chat that isn't loaded hasn't had a message since it was last loaded, but the
+        // client may still have missed stored ones, so it goes through the lookup below
+        long current = sequencer.current(chatId);
+        if (current >= 0 && lastSequence >= current) {
+            return;
+        }
+        List<Message> cached = historyCache.getAfterSequence(chatId, lastSequence);
+        List<Message> found = cached != null ? cached : loadAfter(chatId, lastSequence);
+        stripeFor(chatId).execute(() -> replay(client, userId, chatId, lastSequence, found));
+    }
+
+    private void replay(ClientHandler client, int userId, int chatId, long lastSequence, List<Message> found) {
+        // Anything routed since the lookup is in the cache, unless the cache doesn't reach back
+        // to the end of what was found: it moved on in the meantime, or the chat's sequence
+        // skipped ahead after a restart. Then the database is read from there, and whatever
+        // the cache holds beyond that covers messages not stored yet.
+        List<Message> missed = new ArrayList<>(found);
+        List<Message> newer = historyCache.getAfterSequence(chatId, lastOf(missed, lastSequence));
+        if (newer == null) {
+            missed.addAll(loadAfter(chatId, lastOf(missed, lastSequence)));
+            newer = historyCache.getCachedAfterSequence(chatId, lastOf(missed, lastSequence));
+        }
+        missed.addAll(newer);
+        int maxMessages = server.getConfig().getResumeMaxMessages();
+        if (missed.size() > maxMessages) {
+            missed = missed.subList(missed.size() - maxMessages, missed.size());
+        }
+        if (missed.isEmpty()) {
+            return;
+        }
+
+        List<Message> batches = new ArrayList<>();
+        int batchSize = server.getConfig().getHistorySize();
+        for (int from = 0; from < missed.size(); from += batchSize) {
+            Message batch = new Message();
+            batch.setType(Message.MessageType.RESUME);
+            batch.setChatId(chatId);
+            batch.setHistory(new ArrayList<>(missed.subList(from, Math.min(missed.size(), from + batchSize))));
+            batches.add(batch);
+        }
+        broadcaster.sendInOrder(chatId, userId, () -> batches.forEach(client::sendMessage));
+    }
+
+    private static long lastOf(List<Message> messages, long lastSequence) {
+        return messages.isEmpty() ? lastSequence : messages.get(messages.size() - 1).getSequence();
+    }
+
+    private List<Message> loadAfter(int chatId, long lastSequence) {
+        try {
+            return server.getHistoryService().getAfterSequence(chatId, lastSequence,
+                    server.getConfig().getResumeMaxMessages());
+        } catch (SQLException e) {
+            logger.error("Failed to load messages of chat {} after {}", chatId, lastSequence, e);
+            return Collections.emptyList();
+        }
+    }
+
+    private ExecutorService stripeFor(int chatId) {
+        return stripes[Math.floorMod(chatId, stripes.length)];
+    }
+
+    public void shutdown() {
+        for (ExecutorService stripe : stripes) {
+            stripe.shutdown();
+        }
+        try {
+            for (ExecutorService stripe : stripes) {
+                stripe.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.chatapp.server;
+
+import com.chatapp.protocol.BinaryMessageCodec;
+import com.chatapp.protocol.WireProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking connection driven by an {@link NioEventLoop}. Reads are split into
+ * newline-delimited lines, or length-prefixed frames once the client has negotiated the
+ * binary protocol, on the I/O thread and handed to the worker pool in arrival order; the
+ * I/O thread is also the writer stage that drains the handler's outbound queue.
+ */
+class NioConnection implements ClientConnection {
+    private static final Logger logger = LoggerFactory.getLogger(NioConnection.class);
+    private static final int INITIAL_LINE_BUFFER_SIZE = 512;
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+    private static final int MAX_READS_PER_EVENT = 16;
+    private static final int MAX_BYTES_PER_WRITE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final NioEventLoop eventLoop;
+    private final Executor workerPool;
+    private final String remoteAddress;
+    private final Queue<byte[]> inbound;
+    // Encoded frames taken from the outbound queue but not yet fully written; I/O thread only
+    private final ArrayDeque<ByteBuffer> pendingWrites;
+    private volatile OutboundQueue outbound;
+    private final AtomicBoolean dispatching;
+    private final AtomicBoolean flushScheduled;
+    private final AtomicBoolean closed;
+    private ClientHandler handler;
+    private SelectionKey key;
+    private volatile boolean inputClosed;
+    private boolean disconnectDispatched;
+
+    // Bytes of a line or frame that spans reads; only touched by the I/O thread
+    private byte[] lineBuffer;
+    private int lineLength;
+    private boolean firstLine = true;
+    private boolean binaryFrames;
+    private final int[] frameLength = new int[1];
+
+    NioConnection(SocketChannel channel, NioEventLoop eventLoop, Executor workerPool) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.workerPool = workerPool;
+        this.remoteAddress = String.valueOf(channel.socket().getInetAddress());
+        this.inbound = new ConcurrentLinkedQueue<>();
+        this.pendingWrites = new ArrayDeque<>();
+        this.dispatching = new AtomicBoolean();
+        this.flushScheduled = new AtomicBoolean();
+        this.closed = new AtomicBoolean();
+    }
+
+    void setHandler(ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    void onReadable(ByteBuffer readBuffer) {
+        for (int i = 0; i < MAX_READS_PER_EVENT && !closed.get(); i++) {
+            readBuffer.clear();
+            int bytesRead;
+            try {
+                bytesRead = channel.read(readBuffer);
+            } catch (IOException e) {
+                logger.debug("Read failed for {}: {}", remoteAddress, e.getMessage());
+                bytesRead = -1;
+            }
+            if (bytesRead < 0) {
+                inputClosed = true;
+                break;
+            }
+            if (bytesRead == 0) {
+                break;
+            }
+            readBuffer.flip();
+            if (!(binaryFrames ? splitFrames(readBuffer) : splitLines(readBuffer))) {
+                logger.warn("Malformed or oversized input from {}, closing connection", remoteAddress);
+                inputClosed = true;
+                break;
+            }
+            if (bytesRead < readBuffer.capacity()) {
+                break;
+            }
+        }
+        if (inputClosed && key != null) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        dispatch();
+    }
+
+    private boolean splitLines(ByteBuffer buffer) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        for (int i = start; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                if (!appendToLine(buffer, start, i, limit)) {
+                    return false;
+                }
+                byte[] line = takeLine();
+                start = i + 1;
+                if (firstLine) {
+                    firstLine = false;
+                    if (WireProtocol.isHandshake(line, line.length)) {
+                        // Everything after the handshake line is binary frames, this read included
+                        handler.useBinaryProtocol();
+                        binaryFrames = true;
+                        buffer.position(start);
+                        return splitFrames(buffer);
+                    }
+                }
+                inbound.add(line);
+            }
+        }
+        return start == limit || appendToLine(buffer, start, limit, limit);
+    }
+
+    private boolean splitFrames(ByteBuffer buffer) {
+        if (!appendToLine(buffer, buffer.position(), buffer.limit(), buffer.limit())) {
+            return false;
+        }
+        int offset = 0;
+        try {
+            int headerLength;
+            while ((headerLength = BinaryMessageCodec.readFrameHeader(lineBuffer, offset, lineLength, frameLength)) > 0
+                    && offset + headerLength + frameLength[0] <= lineLength) {
+                int payloadStart = offset + headerLength;
+                inbound.add(Arrays.copyOfRange(lineBuffer, payloadStart, payloadStart + frameLength[0]));
+                offset = payloadStart + frameLength[0];
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        // Keep the partial frame at the front of the buffer for the next read
+        lineLength -= offset;
+        if (lineLength == 0) {
+            if (lineBuffer.length > INITIAL_LINE_BUFFER_SIZE * 8) {
+                lineBuffer = null;
+            }
+        } else if (offset > 0) {
+            System.arraycopy(lineBuffer, offset, lineBuffer, 0, lineLength);
+        }
+        return true;
+    }
+
+    private boolean appendToLine(ByteBuffer buffer, int from, int to, int limit) {
+        int length = to - from;
+        if (lineLength + length > MAX_LINE_LENGTH) {
+            return false;
+        }
+        if (lineBuffer == null) {
+            lineBuffer = new byte[Math.max(INITIAL_LINE_BUFFER_SIZE, length)];
+        } else if (lineLength + length > lineBuffer.length) {
+            byte[] grown = new byte[Math.max(lineBuffer.length * 2, lineLength + length)];
+            System.arraycopy(lineBuffer, 0, grown, 0, lineLength);
+            lineBuffer = grown;
+        }
+        buffer.limit(to).position(from);
+        buffer.get(lineBuffer, lineLength, length);
+        buffer.limit(limit);
+        lineLength += length;
+        return true;
+    }
+
+    private byte[] takeLine() {
+        int length = lineLength;
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        byte[] line = Arrays.copyOf(lineBuffer, length);
+        lineLength = 0;
+        // Don't let one large message pin a large buffer on an otherwise idle connection
+        if (lineBuffer.length > INITIAL_LINE_BUFFER_SIZE * 8) {
+            lineBuffer = null;
+        }
+        return line;
+    }
+
+    private void dispatch() {
+        if ((inbound.isEmpty() && !inputClosed) || !dispatching.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            workerPool.execute(this::drainInbound);
+        } catch (RejectedExecutionException e) {
+            dispatching.set(false);
+            close();
+        }
+    }
+
+    // Runs on the worker pool; at most one drain per connection at a time keeps messages in order
+    private void drainInbound() {
+        do {
+            try {
+                byte[] frame;
+                while ((frame = inbound.poll()) != null) {
+                    try {
+                        handler.handleFrame(frame);
+                    } catch (Throwable t) {
+                        // Drop the rest of the input and let the disconnect below close the connection
+                        logger.error("Error handling input from {}, closing connection", remoteAddress, t);
+                        inputClosed = true;
+                        inbound.clear();
+                    }
+                }
+                if (inputClosed && !disconnectDispatched) {
+                    disconnectDispatched = true;
+                    handler.disconnect();
+                }
+            } finally {
+                dispatching.set(false);
+            }
+            // The I/O thread may have queued input or closed it after the checks above and
+            // then lost the race for dispatching, so look again before leaving
+        } while ((!inbound.isEmpty() || (inputClosed && !disconnectDispatched))
+                && dispatching.compareAndSet(false, true));
+    }
+
+    @Override
+    public void requestWrite(OutboundQueue queue) {
+        outbound = queue;
+        if (!closed.get() && flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    // Runs on the I/O thread, either as a scheduled task or when the socket becomes writable
+    void flush() {
+        OutboundQueue queue = outbound;
+        if (queue == null) {
+            return;
+        }
+        ByteBuffer[] buffers = eventLoop.writeBuffers();
+        try {
+            while (!closed.get()) {
+                // Gather as many queued frames as fit into one write call. Frames are shared
+                // between recipients, so each connection wraps them in its own ByteBuffer.
+                byte[] frame;
+                int pendingBytes = 0;
+                for (ByteBuffer buffer : pendingWrites) {
+                    pendingBytes += buffer.remaining();
+                }
+                while (pendingWrites.size() < buffers.length && pendingBytes < MAX_BYTES_PER_WRITE
+                        && (frame = queue.poll()) != null) {
+                    ByteBuffer encoded = ByteBuffer.wrap(frame);
+                    pendingWrites.addLast(encoded);
+                    pendingBytes += encoded.remaining();
+                }
+
+                if (pendingWrites.isEmpty()) {
+                    setWriteInterest(false);
+                    flushScheduled.set(false);
+                    if (queue.isEmpty() || !flushScheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+
+                int count = 0;
+                for (ByteBuffer buffer : pendingWrites) {
+                    buffers[count++] = buffer;
+                }
+                channel.write(buffers, 0, count);
+                Arrays.fill(buffers, 0, count, null);
+                while (!pendingWrites.isEmpty() && !pendingWrites.peekFirst().hasRemaining()) {
+                    pendingWrites.pollFirst();
+                }
+                if (!pendingWrites.isEmpty()) {
+                    // Socket send buffer is full; resume when the selector reports OP_WRITE
+                    setWriteInterest(true);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Write failed for {}: {}", remoteAddress, e.getMessage());
+            inputClosed = true;
+            dispatch();
+        }
+    }
+
+    private void setWriteInterest(boolean enabled) {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int ops = key.interestOps();
+        int updated = enabled ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+        if (updated != ops) {
+            key.interestOps(updated);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        eventLoop.execute(() -> {
+            if (key != null) {
+                key.cancel();
+            }
+            pendingWrites.clear();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.error("Error closing client channel", e);
+            }
+        });
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed.get() && channel.isOpen();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+}
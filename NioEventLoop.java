@@ -0,0 +1,139 @@
+package com.chatapp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread. Owns the selection keys of the connections registered with it;
+ * other threads hand work to it through {@link #execute(Runnable)}.
+ */
+class NioEventLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(NioEventLoop.class);
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_BUFFERS_PER_WRITE = 64;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    // Shared by every connection on this loop; a connection only keeps bytes of an unfinished line
+    private final ByteBuffer readBuffer;
+    // Scratch array for gathering writes, also shared by the loop's connections
+    private final ByteBuffer[] writeBuffers;
+    private volatile boolean isRunning;
+    private Thread thread;
+
+    NioEventLoop() throws IOException {
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        this.writeBuffers = new ByteBuffer[MAX_BUFFERS_PER_WRITE];
+    }
+
+    void start(String name) {
+        isRunning = true;
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    void register(SocketChannel channel, NioConnection connection) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.attach(key);
+            } catch (ClosedChannelException e) {
+                connection.close();
+            }
+        });
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    ByteBuffer[] writeBuffers() {
+        return writeBuffers;
+    }
+
+    @Override
+    public void run() {
+        while (isRunning) {
+            try {
+                // Tasks queued from this thread don't wake the selector, so don't block on them
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                runTasks();
+                processSelectedKeys();
+            } catch (IOException e) {
+                logger.error("Error in event loop", e);
+            }
+        }
+        closeAll();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.error("Error running event loop task", e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    connection.onReadable(readBuffer);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (CancelledKeyException e) {
+                connection.close();
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof NioConnection) {
+                ((NioConnection) attachment).close();
+            }
+        }
+        runTasks();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error("Error closing selector", e);
+        }
+    }
+
+    void shutdown() {
+        isRunning = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,146 @@
+package com.chatapp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector-based transport: a few I/O threads multiplex every client socket and
+ * message handling runs on a separate worker pool, so idle clients cost no threads.
+ */
+public class NioTransport {
+    private static final Logger logger = LoggerFactory.getLogger(NioTransport.class);
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final long ACCEPT_BACKOFF_MILLIS = 100;
+    private static final long ACCEPT_FAILURE_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final ChatServer server;
+    private final int port;
+    private final NioEventLoop[] eventLoops;
+    private final ExecutorService workerPool;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean isRunning;
+    private int nextLoop;
+    // Only touched by the accepting thread
+    private long acceptFailures;
+    private long lastAcceptFailureLog = System.nanoTime() - ACCEPT_FAILURE_LOG_INTERVAL_NANOS;
+
+    public NioTransport(ChatServer server, ServerConfig config) throws IOException {
+        this.server = server;
+        this.port = config.getPort();
+        this.eventLoops = new NioEventLoop[config.getIoThreads()];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new NioEventLoop();
+        }
+        this.workerPool = Executors.newFixedThreadPool(config.getWorkerThreads(), namedThreads("chat-worker-"));
+    }
+
+    /**
+     * Accepts connections on the calling thread until {@link #shutdown()} is called.
+     */
+    public void serve() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        isRunning = true;
+
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i].start("chat-io-" + i);
+        }
+        logger.info("NIO transport listening on port {} with {} I/O threads", port, eventLoops.length);
+
+        while (isRunning) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                // shutdown() closed the server channel
+                return;
+            } catch (IOException e) {
+                // Usually out of file descriptors; connections are closing all the time, so wait
+                // a moment and try again rather than take the server down
+                acceptFailed(e);
+                continue;
+            }
+            accept(channel);
+        }
+    }
+
+    // Under a connection storm this fails on every attempt, so it is logged at most once per
+    // interval with a count of what was left out
+    private void acceptFailed(IOException e) {
+        acceptFailures++;
+        long now = System.nanoTime();
+        if (now - lastAcceptFailureLog >= ACCEPT_FAILURE_LOG_INTERVAL_NANOS) {
+            logger.error("Failed to accept connections ({} times since last logged): {}",
+                    acceptFailures, e.getMessage());
+            acceptFailures = 0;
+            lastAcceptFailureLog = now;
+        }
+        try {
+            Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            isRunning = false;
+        }
+    }
+
+    private void accept(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            // Typically a peer that reset before we got to it; only this connection is dropped
+            logger.warn("Dropping new connection from {}: {}", channel.socket().getInetAddress(), e.getMessage());
+            try {
+                channel.close();
+            } catch (IOException closeError) {
+                logger.debug("Error closing rejected channel", closeError);
+            }
+            return;
+        }
+        logger.info("New client connected: {}", channel.socket().getInetAddress());
+
+        NioEventLoop eventLoop = eventLoops[nextLoop];
+        nextLoop = (nextLoop + 1) % eventLoops.length;
+
+        NioConnection connection = new NioConnection(channel, eventLoop, workerPool);
+        connection.setHandler(new ClientHandler(connection, server));
+        eventLoop.register(channel, connection);
+    }
+
+    public void shutdown() {
+        isRunning = false;
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                logger.error("Error closing server channel", e);
+            }
+        }
+        for (NioEventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+        workerPool.shutdown();
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
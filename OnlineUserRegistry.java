@@ -0,0 +1,243 @@
+package com.chatapp.server;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Connected clients by user id, without boxing. Ids are hashed onto striped open-addressing
+ * tables (linear probing, backward-shift deletion). Lookups take an optimistic read stamp
+ * and only fall back to the stripe's read lock if a writer got in the way, so the fan-out
+ * loop does one probe per recipient and allocates nothing. Writes lock a single stripe.
+ */
+public class OnlineUserRegistry {
+    private static final int STRIPE_BITS = 6;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+    private final AtomicInteger size = new AtomicInteger();
+
+    public OnlineUserRegistry() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public ClientHandler get(int userId) {
+        int hash = hash(userId);
+        Stripe stripe = stripes[hash >>> (32 - STRIPE_BITS)];
+        long stamp = stripe.lock.tryOptimisticRead();
+        ClientHandler handler = stripe.table.find(userId, hash);
+        if (!stripe.lock.validate(stamp)) {
+            stamp = stripe.lock.readLock();
+            try {
+                handler = stripe.table.find(userId, hash);
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return handler;
+    }
+
+    /**
+     * Registers a handler, returning the one it replaced, if any.
+     */
+    public ClientHandler put(int userId, ClientHandler handler) {
+        int hash = hash(userId);
+        Stripe stripe = stripes[hash >>> (32 - STRIPE_BITS)];
+        long stamp = stripe.lock.writeLock();
+        try {
+            ClientHandler previous = stripe.table.put(userId, hash, handler);
+            if (previous == null) {
+                size.incrementAndGet();
+                if (stripe.table.size * 2 > stripe.table.keys.length) {
+                    stripe.table = stripe.table.resize();
+                }
+            }
+            return previous;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the user only while it is still mapped to this handler, so a connection closing
+     * late can't unregister the session that replaced it.
+     */
+    public boolean remove(int userId, ClientHandler handler) {
+        int hash = hash(userId);
+        Stripe stripe = stripes[hash >>> (32 - STRIPE_BITS)];
+        long stamp = stripe.lock.writeLock();
+        try {
+            if (stripe.table.remove(userId, hash, handler)) {
+                size.decrementAndGet();
+                return true;
+            }
+            return false;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Ids of every registered user. Each stripe is copied under its read lock, so the result
+     * is consistent per stripe, not a single point in time across all of them.
+     */
+    public int[] userIds() {
+        int[] ids = new int[Math.max(size.get(), 16)];
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                Table table = stripe.table;
+                if (count + table.size > ids.length) {
+                    ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + table.size));
+                }
+                for (int i = 0; i < table.values.length; i++) {
+                    if (table.values[i] != null) {
+                        ids[count++] = table.keys[i];
+                    }
+                }
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Visits a snapshot of each stripe, taken under its read lock and visited after it is
+     * released, so the action may register or remove clients.
+     */
+    public void forEach(Consumer<ClientHandler> action) {
+        for (Stripe stripe : stripes) {
+            ClientHandler[] snapshot;
+            long stamp = stripe.lock.readLock();
+            try {
+                snapshot = stripe.table.values.clone();
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+            for (ClientHandler handler : snapshot) {
+                if (handler != null) {
+                    action.accept(handler);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.writeLock();
+            try {
+                size.addAndGet(-stripe.table.size);
+                stripe.table = new Table(INITIAL_CAPACITY);
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    // Fibonacci hashing: the top bits pick the stripe, the low bits the slot
+    private static int hash(int userId) {
+        int h = userId * 0x9E3779B9;
+        return h ^ ((h >>> 16) & ((1 << (32 - STRIPE_BITS)) - 1));
+    }
+
+    private static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        // Replaced on resize; readers see either table whole, and validate tells them to retry
+        volatile Table table = new Table(INITIAL_CAPACITY);
+    }
+
+    private static final class Table {
+        final int[] keys;
+        final ClientHandler[] values;
+        int size;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new ClientHandler[capacity];
+        }
+
+        // Bounded by the table length, because an optimistic reader can see a half-written table
+        ClientHandler find(int userId, int hash) {
+            int mask = keys.length - 1;
+            for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                ClientHandler handler = values[i];
+                if (handler == null) {
+                    return null;
+                }
+                if (keys[i] == userId) {
+                    return handler;
+                }
+            }
+            return null;
+        }
+
+        ClientHandler put(int userId, int hash, ClientHandler handler) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            while (values[i] != null) {
+                if (keys[i] == userId) {
+                    ClientHandler previous = values[i];
+                    values[i] = handler;
+                    return previous;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = userId;
+            values[i] = handler;
+            size++;
+            return null;
+        }
+
+        boolean remove(int userId, int hash, ClientHandler handler) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            while (values[i] != null) {
+                if (keys[i] == userId) {
+                    if (values[i] != handler) {
+                        return false;
+                    }
+                    deleteAt(i);
+                    size--;
+                    return true;
+                }
+                i = (i + 1) & mask;
+            }
+            return false;
+        }
+
+        // Shifts later entries of the probe run back so no tombstone is needed
+        private void deleteAt(int hole) {
+            int mask = keys.length - 1;
+            for (int j = (hole + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                boolean reachable = hole <= j ? (hole < home && home <= j) : (hole < home || home <= j);
+                if (!reachable) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            keys[hole] = 0;
+            values[hole] = null;
+        }
+
+        Table resize() {
+            Table resized = new Table(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != null) {
+                    resized.put(keys[i], hash(keys[i]), values[i]);
+                }
+            }
+            return resized;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.chatapp.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of encoded frames waiting to be written to one client. Producers (message
+ * routing) never block on it; when the client falls behind and the queue is full, the configured
+ * {@link SlowConsumerPolicy} decides what gives.
+ */
+public class OutboundQueue {
+
+    public enum SlowConsumerPolicy {
+        /** Evict the oldest queued frame to make room for the new one. */
+        DROP_OLDEST,
+        /** Replace the whole backlog with a single RESYNC notice; the client reloads history. */
+        COALESCE,
+        /** Give up on the client and close its connection. */
+        DISCONNECT
+    }
+
+    static final byte[] RESYNC_LINE =
+        "{\"type\":\"SYSTEM\",\"content\":\"RESYNC\"}\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ArrayDeque<byte[]> frames;
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final OutboundStats stats;
+    // A lock rather than synchronized so producers on virtual threads don't pin their carrier
+    private final ReentrantLock lock;
+    private long droppedCount;
+    // Replaced when the connection switches protocol, so the notice is in the client's framing
+    private volatile byte[] resyncFrame = RESYNC_LINE;
+
+    public OutboundQueue(int capacity, SlowConsumerPolicy policy, OutboundStats stats) {
+        this.frames = new ArrayDeque<>(Math.min(capacity, 16));
+        this.capacity = capacity;
+        this.policy = policy;
+        this.stats = stats;
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Queues a frame for writing. Returns false when the queue is full and the policy is
+     * {@link SlowConsumerPolicy#DISCONNECT}; the caller is expected to close the connection.
+     */
+    public boolean offer(byte[] frame) {
+        lock.lock();
+        try {
+            if (frames.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        frames.pollFirst();
+                        recordDropped(1);
+                        break;
+                    case COALESCE:
+                        recordDropped(frames.size());
+                        frames.clear();
+                        frames.addLast(resyncFrame);
+                        break;
+                    default:
+                        stats.recordSlowConsumerDisconnect();
+                        return false;
+                }
+            }
+            frames.addLast(frame);
+            stats.recordDepth(frames.size());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public byte[] poll() {
+        lock.lock();
+        try {
+            return frames.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void setResyncFrame(byte[] resyncFrame) {
+        this.resyncFrame = resyncFrame;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            frames.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordDropped(int count) {
+        droppedCount += count;
+        stats.recordDropped(count);
+    }
+}
@@ -0,0 +1,43 @@
+package com.chatapp.server;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-wide counters for the per-client outbound queues.
+ */
+public class OutboundStats {
+    private final LongAdder droppedMessages;
+    private final LongAdder slowConsumerDisconnects;
+    private final LongAccumulator peakQueueDepth;
+
+    public OutboundStats() {
+        this.droppedMessages = new LongAdder();
+        this.slowConsumerDisconnects = new LongAdder();
+        this.peakQueueDepth = new LongAccumulator(Math::max, 0);
+    }
+
+    void recordDropped(int count) {
+        droppedMessages.add(count);
+    }
+
+    void recordSlowConsumerDisconnect() {
+        slowConsumerDisconnects.increment();
+    }
+
+    void recordDepth(int depth) {
+        peakQueueDepth.accumulate(depth);
+    }
+
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    public long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.sum();
+    }
+
+    public long getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+}
@@ -0,0 +1,251 @@
+package com.chatapp.model;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of user ids, sized for chat membership. Small and sparse sets are a sorted int[]
+ * (binary search, 4 bytes per member); once a set passes ARRAY_MAX members and its ids are
+ * dense enough that a bitmap is no bigger than the array, it switches to a long[] bitmap
+ * over the id range, and switches back when it shrinks or the range grows sparse.
+ * Not thread-safe, like the rest of the model.
+ */
+public class ParticipantSet {
+    static final int ARRAY_MAX = 1024;
+    private static final int[] EMPTY = new int[0];
+
+    // Array mode: ids[0..size) sorted. Bitmap mode: ids == null, bit i of words is base + i
+    private int[] ids;
+    private long[] words;
+    private int base;
+    private int size;
+
+    public ParticipantSet() {
+        this.ids = EMPTY;
+    }
+
+    public static ParticipantSet of(int... userIds) {
+        int[] sorted = userIds.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return fromSorted(sorted, distinct);
+    }
+
+    private static ParticipantSet fromSorted(int[] sorted, int count) {
+        ParticipantSet set = new ParticipantSet();
+        set.ids = sorted;
+        set.size = count;
+        set.compact();
+        return set;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int userId) {
+        if (ids != null) {
+            return Arrays.binarySearch(ids, 0, size, userId) >= 0;
+        }
+        long offset = (long) userId - base;
+        return offset >= 0 && offset < (long) words.length << 6
+            && (words[(int) (offset >>> 6)] & (1L << offset)) != 0;
+    }
+
+    public boolean add(int userId) {
+        if (ids != null) {
+            int index = Arrays.binarySearch(ids, 0, size, userId);
+            if (index >= 0) {
+                return false;
+            }
+            int insertAt = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(4, size + (size >> 1)));
+            }
+            System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+            ids[insertAt] = userId;
+            size++;
+            if (size > ARRAY_MAX) {
+                compact();
+            }
+            return true;
+        }
+        if (contains(userId)) {
+            return false;
+        }
+        long newBase = Math.min(base, userId & ~63);
+        long newEnd = Math.max((long) base + ((long) words.length << 6), (userId & ~63) + 64L);
+        if (!bitmapFits(newEnd - newBase, size + 1)) {
+            switchToArray(size + 1);
+            return add(userId);
+        }
+        if (newBase != base || newEnd - newBase != (long) words.length << 6) {
+            long[] grown = new long[(int) ((newEnd - newBase) >>> 6)];
+            System.arraycopy(words, 0, grown, (int) ((base - newBase) >>> 6), words.length);
+            words = grown;
+            base = (int) newBase;
+        }
+        long offset = (long) userId - base;
+        words[(int) (offset >>> 6)] |= 1L << offset;
+        size++;
+        return true;
+    }
+
+    public boolean remove(int userId) {
+        if (ids != null) {
+            int index = Arrays.binarySearch(ids, 0, size, userId);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+        if (!contains(userId)) {
+            return false;
+        }
+        long offset = (long) userId - base;
+        words[(int) (offset >>> 6)] &= ~(1L << offset);
+        size--;
+        // Hysteresis, so a group hovering around the threshold doesn't flip on every change
+        if (size < ARRAY_MAX / 2) {
+            switchToArray(size);
+        }
+        return true;
+    }
+
+    /**
+     * Members of both sets, such as the online members of a chat.
+     */
+    public ParticipantSet intersection(ParticipantSet other) {
+        if (ids == null && other.ids == null) {
+            long from = Math.max(base, other.base);
+            long to = Math.min((long) base + ((long) words.length << 6),
+                (long) other.base + ((long) other.words.length << 6));
+            int[] result = new int[Math.min(size, other.size)];
+            int count = 0;
+            for (long start = from; start < to; start += 64) {
+                long word = words[(int) ((start - base) >>> 6)] & other.words[(int) ((start - other.base) >>> 6)];
+                while (word != 0) {
+                    result[count++] = (int) (start + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return fromSorted(result, count);
+        }
+        // Walk the smaller side and probe the other, which is a binary search or a bit test
+        ParticipantSet small = size <= other.size ? this : other;
+        ParticipantSet large = small == this ? other : this;
+        int[] result = new int[small.size];
+        int[] count = new int[1];
+        small.forEach(userId -> {
+            if (large.contains(userId)) {
+                result[count[0]++] = userId;
+            }
+        });
+        return fromSorted(result, count[0]);
+    }
+
+    /**
+     * Members of either set.
+     */
+    public ParticipantSet union(ParticipantSet other) {
+        int[] left = toArray();
+        int[] right = other.toArray();
+        int[] result = new int[left.length + right.length];
+        int i = 0, j = 0, count = 0;
+        while (i < left.length && j < right.length) {
+            if (left[i] < right[j]) {
+                result[count++] = left[i++];
+            } else if (left[i] > right[j]) {
+                result[count++] = right[j++];
+            } else {
+                result[count++] = left[i++];
+                j++;
+            }
+        }
+        while (i < left.length) {
+            result[count++] = left[i++];
+        }
+        while (j < right.length) {
+            result[count++] = right[j++];
+        }
+        return fromSorted(result, count);
+    }
+
+    public void forEach(IntConsumer action) {
+        if (ids != null) {
+            for (int i = 0; i < size; i++) {
+                action.accept(ids[i]);
+            }
+            return;
+        }
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            while (word != 0) {
+                action.accept(base + (w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * The members in ascending order, as a new array.
+     */
+    public int[] toArray() {
+        if (ids != null) {
+            return Arrays.copyOf(ids, size);
+        }
+        int[] result = new int[size];
+        int[] count = new int[1];
+        forEach(userId -> result[count[0]++] = userId);
+        return result;
+    }
+
+    // Picks the smaller representation for the current members
+    private void compact() {
+        if (ids != null && size > ARRAY_MAX) {
+            long from = ids[0] & ~63;
+            long range = ((long) ids[size - 1] & ~63) + 64 - from;
+            if (bitmapFits(range, size)) {
+                words = new long[(int) (range >>> 6)];
+                base = (int) from;
+                for (int i = 0; i < size; i++) {
+                    long offset = (long) ids[i] - base;
+                    words[(int) (offset >>> 6)] |= 1L << offset;
+                }
+                ids = null;
+            }
+        } else if (ids != null && ids.length > size * 2 && ids.length > 4) {
+            ids = Arrays.copyOf(ids, size);
+        }
+    }
+
+    private void switchToArray(int capacity) {
+        int[] sorted = new int[Math.max(capacity, 4)];
+        int[] count = new int[1];
+        forEach(userId -> sorted[count[0]++] = userId);
+        ids = sorted;
+        words = null;
+        base = 0;
+    }
+
+    // A bitmap is worth it once it takes no more room than the sorted array would
+    private static boolean bitmapFits(long range, int members) {
+        return members > ARRAY_MAX && range / 8 <= (long) members * 4;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
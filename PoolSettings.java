@@ -0,0 +1,66 @@
+package com.chatapp.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+
+/**
+ * Connection pool settings from the db.* keys in database.properties.
+ */
+public class PoolSettings {
+    private static final Logger logger = LoggerFactory.getLogger(PoolSettings.class);
+
+    private final int initialSize;
+    private final int maxActive;
+    private final int maxIdle;
+    private final int minIdle;
+    private final long maxWaitMillis;
+    private final int validationTimeoutSeconds;
+    private final long leakDetectionThresholdMillis;
+    private final int statementCacheSize;
+
+    public PoolSettings(Properties props) {
+        this.maxActive = Math.max(1, getInt(props, "db.maxActive", 20));
+        this.maxIdle = clamp(getInt(props, "db.maxIdle", 10), 0, maxActive);
+        this.minIdle = clamp(getInt(props, "db.minIdle", 5), 0, maxIdle);
+        this.initialSize = clamp(getInt(props, "db.initialSize", 5), 0, maxIdle);
+        this.maxWaitMillis = Math.max(0, getInt(props, "db.maxWait", 5000));
+        this.validationTimeoutSeconds = Math.max(1, getInt(props, "db.validationTimeout", 2));
+        this.leakDetectionThresholdMillis = Math.max(0, getInt(props, "db.leakDetectionThreshold", 60000));
+        this.statementCacheSize = Math.max(0, getInt(props, "db.statementCacheSize", 64));
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value '{}' for {}, using {}", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public int getInitialSize() { return initialSize; }
+
+    public int getMaxActive() { return maxActive; }
+
+    public int getMaxIdle() { return maxIdle; }
+
+    public int getMinIdle() { return minIdle; }
+
+    public long getMaxWaitMillis() { return maxWaitMillis; }
+
+    public int getValidationTimeoutSeconds() { return validationTimeoutSeconds; }
+
+    public long getLeakDetectionThresholdMillis() { return leakDetectionThresholdMillis; }
+
+    public int getStatementCacheSize() { return statementCacheSize; }
+}
@@ -0,0 +1,287 @@
+package com.chatapp.server;
+
+import com.chatapp.database.ConnectionPool;
+import com.chatapp.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Who is online, kept in memory and treated as the truth; the users table follows behind.
+ * A user goes online as soon as one of their connections is registered, but only goes
+ * offline once they have stayed disconnected for the grace period, so a connection that
+ * drops and comes straight back changes nothing. Every flush interval the transitions
+ * since the last flush are written to users in one batch and sent to everyone who shares
+ * a chat with the user, one PRESENCE message per recipient.
+ */
+public class PresenceService {
+    private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+    private static final String MARK_ONLINE = "UPDATE users SET is_online = TRUE, last_login = ? WHERE id = ?";
+    private static final String MARK_OFFLINE = "UPDATE users SET is_online = FALSE WHERE id = ?";
+    private static final String MARK_ALL_OFFLINE = "UPDATE users SET is_online = FALSE WHERE is_online = TRUE";
+
+    private final ChatServer server;
+    private final ConnectionPool pool;
+    private final long offlineGraceNanos;
+    private final long flushIntervalMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Set<Integer> online = new HashSet<>();
+    private final Map<Integer, Long> offlineDeadlines = new HashMap<>();
+    // Transitions not yet flushed, at most one per user
+    private final Map<Integer, Change> changes = new LinkedHashMap<>();
+    private final Thread thread;
+    private volatile boolean isRunning;
+
+    public PresenceService(ChatServer server, ConnectionPool pool, long offlineGraceMillis, long flushIntervalMillis) {
+        this.server = server;
+        this.pool = pool;
+        this.offlineGraceNanos = TimeUnit.MILLISECONDS.toNanos(offlineGraceMillis);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.thread = new Thread(this::run, "presence-flusher");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        // Nobody is connected to a server that is just starting, whatever the last one left behind
+        markAllOffline();
+        isRunning = true;
+        thread.start();
+    }
+
+    public void connected(int userId) {
+        // Looked up here, on the connecting thread, so a reconnect storm's chat lists are read
+        // by the threads logging users in rather than one at a time by the flusher
+        try {
+            server.getMembershipIndex().getChats(userId);
+        } catch (IllegalStateException e) {
+            logger.warn("Could not load the chats of user {}: {}", userId, e.getMessage());
+        }
+        lock.lock();
+        try {
+            offlineDeadlines.remove(userId);
+            if (online.add(userId)) {
+                record(userId, true);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void disconnected(int userId) {
+        lock.lock();
+        try {
+            if (online.contains(userId)) {
+                offlineDeadlines.put(userId, System.nanoTime() + offlineGraceNanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isOnline(int userId) {
+        lock.lock();
+        try {
+            return online.contains(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held. A transition that undoes an unflushed one cancels it out.
+    private void record(int userId, boolean nowOnline) {
+        Change pending = changes.get(userId);
+        if (pending != null && pending.online != nowOnline) {
+            changes.remove(userId);
+        } else {
+            changes.put(userId, new Change(userId, nowOnline, LocalDateTime.now()));
+        }
+    }
+
+    private void run() {
+        while (isRunning) {
+            try {
+                Thread.sleep(flushIntervalMillis);
+                flush();
+            } catch (InterruptedException e) {
+                isRunning = false;
+            } catch (RuntimeException e) {
+                logger.error("Presence flush failed", e);
+            }
+        }
+    }
+
+    private void flush() {
+        List<Change> batch;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            Iterator<Map.Entry<Integer, Long>> expired = offlineDeadlines.entrySet().iterator();
+            while (expired.hasNext()) {
+                Map.Entry<Integer, Long> entry = expired.next();
+                if (entry.getValue() - now <= 0) {
+                    expired.remove();
+                    online.remove(entry.getKey());
+                    record(entry.getKey(), false);
+                }
+            }
+            if (changes.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(changes.values());
+            changes.clear();
+        } finally {
+            lock.unlock();
+        }
+
+        if (!write(batch)) {
+            // Try again next time, unless the user has changed state since
+            lock.lock();
+            try {
+                for (Change change : batch) {
+                    changes.putIfAbsent(change.userId, change);
+                }
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        publish(batch);
+    }
+
+    private boolean write(List<Change> batch) {
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement markOnline = conn.prepareStatement(MARK_ONLINE);
+                 PreparedStatement markOffline = conn.prepareStatement(MARK_OFFLINE)) {
+                for (Change change : batch) {
+                    if (change.online) {
+                        markOnline.setTimestamp(1, Timestamp.valueOf(change.at));
+                        markOnline.setInt(2, change.userId);
+                        markOnline.addBatch();
+                    } else {
+                        markOffline.setInt(1, change.userId);
+                        markOffline.addBatch();
+                    }
+                }
+                markOnline.executeBatch();
+                markOffline.executeBatch();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to store {} presence changes", batch.size(), e);
+            return false;
+        }
+    }
+
+    private void publish(List<Change> batch) {
+        Map<Integer, Change> byUser = new HashMap<>();
+        for (Change change : batch) {
+            byUser.put(change.userId, change);
+        }
+
+        // Changed users grouped by chat first, so each chat's members are walked once however
+        // many of them changed, rather than once per changed member
+        ChatMembershipIndex membership = server.getMembershipIndex();
+        Map<Integer, List<Integer>> changedByChat = new HashMap<>();
+        for (Change change : byUser.values()) {
+            try {
+                for (int chatId : membership.getChats(change.userId)) {
+                    changedByChat.computeIfAbsent(chatId, id -> new ArrayList<>(2)).add(change.userId);
+                }
+            } catch (IllegalStateException e) {
+                logger.error("Could not look up who to tell that user {} went {}", change.userId,
+                        change.online ? "online" : "offline", e);
+            }
+        }
+
+        // Then one set of changed users per online recipient, however many chats they share
+        Map<Integer, Set<Integer>> changedByWatcher = new HashMap<>();
+        for (Map.Entry<Integer, List<Integer>> chat : changedByChat.entrySet()) {
+            int[] members;
+            try {
+                members = membership.getMembers(chat.getKey());
+            } catch (IllegalStateException e) {
+                logger.error("Could not look up the members of chat {} for presence", chat.getKey(), e);
+                continue;
+            }
+            List<Integer> changed = chat.getValue();
+            for (int watcherId : members) {
+                if (!server.isClientOnline(watcherId)) {
+                    continue;
+                }
+                for (int userId : changed) {
+                    if (userId != watcherId) {
+                        changedByWatcher.computeIfAbsent(watcherId, id -> new LinkedHashSet<>()).add(userId);
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, Set<Integer>> entry : changedByWatcher.entrySet()) {
+            List<Message> changed = new ArrayList<>(entry.getValue().size());
+            for (int userId : entry.getValue()) {
+                changed.add(byUser.get(userId).toMessage());
+            }
+            Message update = new Message();
+            update.setType(Message.MessageType.PRESENCE);
+            update.setHistory(changed);
+            server.sendToUser(entry.getKey(), update);
+        }
+    }
+
+    private void markAllOffline() {
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            int updated = stmt.executeUpdate(MARK_ALL_OFFLINE);
+            if (updated > 0) {
+                logger.info("Marked {} users offline", updated);
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to reset online users", e);
+        }
+    }
+
+    public void shutdown() {
+        isRunning = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        markAllOffline();
+    }
+
+    private static final class Change {
+        final int userId;
+        final boolean online;
+        final LocalDateTime at;
+
+        Change(int userId, boolean online, LocalDateTime at) {
+            this.userId = userId;
+            this.online = online;
+            this.at = at;
+        }
+
+        Message toMessage() {
+            Message message = new Message();
+            message.setType(Message.MessageType.PRESENCE);
+            message.setSenderId(userId);
+            message.setContent(online ? "ONLINE" : "OFFLINE");
+            message.setTimestamp(at);
+            return message;
+        }
+    }
+}
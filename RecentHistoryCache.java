@@ -0,0 +1,347 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The last few messages of each recently active chat, so opening a chat is a memory read.
+ *
+ * The send path appends every routed message. A chat that isn't cached is loaded from the
+ * messages table the first time its history is requested. Each chat's ring has its own lock,
+ * so router stripes appending to different chats never wait on each other.
+ *
+ * The total number of cached messages is capped. Past the cap, the least recently used chats
+ * are dropped whole until the cache is 10% under it; recency is a timestamp on each chat,
+ * so appending and reading update no shared structure.
+ */
+public class RecentHistoryCache {
+    private static final Logger logger = LoggerFactory.getLogger(RecentHistoryCache.class);
+
+    private final MessageHistoryService historyService;
+    private final int messagesPerChat;
+    private final int maxMessages;
+    private final ConcurrentMap<Integer, ChatHistory> chats;
+    // Only changes while rings are filling up, so a full cache appends without touching it
+    private final AtomicInteger cachedMessages;
+    private final ReentrantLock evictionLock;
+
+    public RecentHistoryCache(MessageHistoryService historyService, int messagesPerChat, int maxMessages) {
+        this.historyService = historyService;
+        this.messagesPerChat = messagesPerChat;
+        this.maxMessages = Math.max(maxMessages, messagesPerChat);
+        this.chats = new ConcurrentHashMap<>(256);
+        this.cachedMessages = new AtomicInteger();
+        this.evictionLock = new ReentrantLock();
+    }
+
+    /**
+     * Records a message sent to a chat. Chats that were never loaded start collecting here and
+     * are merged with the database rows when their history is first read.
+     */
+    public void add(Message message) {
+        boolean added = false;
+        while (!added) {
+            ChatHistory history = historyOf(message.getChatId());
+            history.lock.lock();
+            try {
+                // Evicted between the lookup and the lock: go again, which creates a new ring
+                if (!history.removed) {
+                    cachedMessages.addAndGet(history.add(message));
+                    history.lastUsed = System.nanoTime();
+                    added = true;
+                }
+            } finally {
+                history.lock.unlock();
+            }
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * Returns up to messagesPerChat of the newest messages of a chat, oldest first.
+     */
+    public List<Message> getRecent(int chatId) {
+        ChatHistory history = chats.get(chatId);
+        if (history != null) {
+            List<Message> snapshot = snapshotIfLoaded(history);
+            if (snapshot != null) {
+                return snapshot;
+            }
+        }
+
+        // Miss: query outside any lock so the chat's senders aren't held up by the database
+        List<Message> stored = load(chatId);
+        if (stored == null) {
+            history = chats.get(chatId);
+            return history != null ? snapshot(history) : Collections.emptyList();
+        }
+
+        List<Message> snapshot = null;
+        while (snapshot == null) {
+            history = historyOf(chatId);
+            history.lock.lock();
+            try {
+                if (!history.removed) {
+                    if (!history.loaded) {
+                        cachedMessages.addAndGet(history.merge(stored));
+                    }
+                    history.lastUsed = System.nanoTime();
+                    snapshot = history.snapshot();
+                }
+            } finally {
+                history.lock.unlock();
+            }
+        }
+        evictIfNeeded();
+        return snapshot;
+    }
+
+    /**
+     * The cached messages of a chat sequenced after afterSequence, oldest first, or null if
+     * the cache doesn't reach back that far and the rest has to come from the database.
+     */
+    public List<Message> getAfterSequence(int chatId, long afterSequence) {
+        return after(chatId, afterSequence, true);
+    }
+
+    /**
+     * Whatever is cached of a chat after afterSequence, oldest first, possibly with messages
+     * missing before the first one returned.
+     */
+    public List<Message> getCachedAfterSequence(int chatId, long afterSequence) {
+        List<Message> cached = after(chatId, afterSequence, false);
+        return cached != null ? cached : Collections.emptyList();
+    }
+
+    private List<Message> after(int chatId, long afterSequence, boolean mustReachBack) {
+        ChatHistory history = chats.get(chatId);
+        if (history == null) {
+            return null;
+        }
+        history.lock.lock();
+        try {
+            if (mustReachBack && !history.reachesBack(afterSequence)) {
+                return null;
+            }
+            List<Message> missed = new ArrayList<>();
+            for (Message message : history.snapshot()) {
+                if (message.getSequence() > afterSequence) {
+                    missed.add(message);
+                }
+            }
+            history.lastUsed = System.nanoTime();
+            return missed;
+        } finally {
+            history.lock.unlock();
+        }
+    }
+
+    /**
+     * Swaps the cached copy of a message for its stored version, matched by sequence, so the
+     * cache hands out the database id once it is known.
+     */
+    public void replace(Message stored) {
+        ChatHistory history = chats.get(stored.getChatId());
+        if (history == null) {
+            return;
+        }
+        history.lock.lock();
+        try {
+            history.replace(stored);
+        } finally {
+            history.lock.unlock();
+        }
+    }
+
+    public void invalidate(int chatId) {
+        ChatHistory removed = chats.get(chatId);
+        if (removed != null) {
+            remove(chatId, removed);
+        }
+    }
+
+    public int getCachedMessageCount() {
+        return cachedMessages.get();
+    }
+
+    private ChatHistory historyOf(int chatId) {
+        ChatHistory history = chats.get(chatId);
+        return history != null ? history : chats.computeIfAbsent(chatId, k -> new ChatHistory(messagesPerChat));
+    }
+
+    private static List<Message> snapshotIfLoaded(ChatHistory history) {
+        history.lock.lock();
+        try {
+            if (!history.loaded || history.removed) {
+                return null;
+            }
+            history.lastUsed = System.nanoTime();
+            return history.snapshot();
+        } finally {
+            history.lock.unlock();
+        }
+    }
+
+    private static List<Message> snapshot(ChatHistory history) {
+        history.lock.lock();
+        try {
+            return history.snapshot();
+        } finally {
+            history.lock.unlock();
+        }
+    }
+
+    // Sorting every chat is O(n log n), so it is done once per 10% of the cap rather than per
+    // message; a thread that finds another one evicting goes on without waiting
+    private void evictIfNeeded() {
+        if (cachedMessages.get() <= maxMessages || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Candidate> candidates = new ArrayList<>(chats.size());
+            chats.forEach((chatId, history) -> candidates.add(new Candidate(chatId, history)));
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.lastUsed));
+
+            int target = maxMessages - maxMessages / 10;
+            for (Candidate candidate : candidates) {
+                if (cachedMessages.get() <= target) {
+                    break;
+                }
+                remove(candidate.chatId, candidate.history);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void remove(int chatId, ChatHistory history) {
+        if (!chats.remove(chatId, history)) {
+            return;
+        }
+        // Marked under the chat's lock so a concurrent add goes to the replacement instead
+        history.lock.lock();
+        try {
+            history.removed = true;
+            cachedMessages.addAndGet(-history.size);
+        } finally {
+            history.lock.unlock();
+        }
+    }
+
+    private List<Message> load(int chatId) {
+        try {
+            return historyService.getLatest(chatId, messagesPerChat);
+        } catch (SQLException e) {
+            logger.error("Failed to load recent messages of chat {}", chatId, e);
+            return null;
+        }
+    }
+
+    /**
+     * Fixed-size ring of one chat's newest messages. Guarded by its own lock.
+     */
+    private static final class ChatHistory {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Message[] ring;
+        private boolean loaded;
+        private boolean removed;
+        private int next;
+        private int size;
+        // Read without the lock when picking chats to evict
+        private volatile long lastUsed;
+
+        ChatHistory(int capacity) {
+            this.ring = new Message[capacity];
+            this.lastUsed = System.nanoTime();
+        }
+
+        // Returns how many messages the ring grew by (0 once it is full)
+        int add(Message message) {
+            ring[next] = message;
+            next = (next + 1) % ring.length;
+            if (size < ring.length) {
+                size++;
+                return 1;
+            }
+            return 0;
+        }
+
+        // Puts the stored rows in front of the messages collected before the load, skipping
+        // those that were stored in the meantime. Returns how many messages the ring grew by.
+        int merge(List<Message> stored) {
+            List<Message> collected = snapshot();
+            int before = size;
+            Set<Long> storedSequences = new HashSet<>();
+            next = 0;
+            size = 0;
+            for (Message message : stored) {
+                add(message);
+                storedSequences.add(message.getSequence());
+            }
+            for (Message message : collected) {
+                if (!storedSequences.contains(message.getSequence())) {
+                    add(message);
+                }
+            }
+            loaded = true;
+            return size - before;
+        }
+
+        // Numbers skipped by the sequencer were never handed out, so the next cached one being
+        // at or below afterSequence + 1 means everything after it is cached too
+        boolean reachesBack(long afterSequence) {
+            for (int i = 0; i < size; i++) {
+                long sequence = ring[(next - size + i + ring.length) % ring.length].getSequence();
+                if (sequence > 0 && sequence <= afterSequence + 1) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void replace(Message stored) {
+            for (int i = 0; i < ring.length; i++) {
+                Message cached = ring[i];
+                if (cached != null && cached.getSequence() == stored.getSequence() && cached.getId() == 0) {
+                    ring[i] = stored;
+                    return;
+                }
+            }
+        }
+
+        List<Message> snapshot() {
+            List<Message> messages = new ArrayList<>(size);
+            int start = (next - size + ring.length) % ring.length;
+            for (int i = 0; i < size; i++) {
+                messages.add(ring[(start + i) % ring.length]);
+            }
+            return messages;
+        }
+    }
+
+    private static final class Candidate {
+        final int chatId;
+        final ChatHistory history;
+        // Read once, so the sort sees a stable value
+        final long lastUsed;
+
+        Candidate(int chatId, ChatHistory history) {
+            this.chatId = chatId;
+            this.history = history;
+            this.lastUsed = history.lastUsed;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.chatapp.controller;
 
+import com.chatapp.client.ChatClient;
 import com.chatapp.model.User;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -11,6 +13,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class RegisterController {
     private static final Logger logger = LoggerFactory.getLogger(RegisterController.class);
@@ -76,13 +80,23 @@ public class RegisterController {
             return;
         }
         
-        // TODO: Implement actual user registration
-        if (registerUser(username, email, password)) {
-            showStatus("Registration successful! Please log in.", true);
-            clearFields();
-        } else {
-            showStatus("Registration failed. Username or email may already exist.", false);
-        }
+        // The server stores the user; connecting and waiting for it stay off the FX thread
+        registerButton.setDisable(true);
+        ChatClient chatClient = new ChatClient();
+        CompletableFuture.supplyAsync(() -> registerUser(chatClient, username, email, password))
+            .whenComplete((user, error) -> Platform.runLater(() -> {
+                chatClient.disconnect();
+                registerButton.setDisable(false);
+                if (error != null) {
+                    logger.error("Error registering user {}", username, error);
+                    showStatus("Registration failed, please try again", false);
+                } else if (user != null) {
+                    showStatus("Registration successful! Please log in.", true);
+                    clearFields();
+                } else {
+                    showStatus("Registration failed. Username or email may already exist.", false);
+                }
+            }));
     }
 
     private void handleBack() {
@@ -103,11 +117,17 @@ public class RegisterController {
         }
     }
 
-    private boolean registerUser(String username, String email, String password) {
-        // TODO: Implement actual database registration
-        // For demo purposes, always return true
+    // The new user, or null if the username or email is already taken
+    private User registerUser(ChatClient chatClient, String username, String email, String password) {
         logger.info("Registering user: {}", username);
-        return true;
+        try {
+            if (!chatClient.connect()) {
+                throw new IOException("Could not connect to the chat server");
+            }
+            return chatClient.register(username, email, password);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
     }
 
     private void clearFields() {
@@ -0,0 +1,224 @@
+package com.chatapp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Properties;
+
+public class ServerConfig {
+    private static final Logger logger = LoggerFactory.getLogger(ServerConfig.class);
+    private static final String CONFIG_FILE = "server.properties";
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_MAX_CLIENTS = 100;
+    private static final int DEFAULT_IO_THREADS = 2;
+    private static final int DEFAULT_WORKER_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+    private static final int DEFAULT_ROUTER_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_OUTBOUND_QUEUE_CAPACITY = 1024;
+    private static final int DEFAULT_FLUSH_THRESHOLD_BYTES = 64 * 1024;
+    private static final int DEFAULT_MAX_FLUSH_DELAY_MILLIS = 5;
+    private static final int DEFAULT_PERSIST_BATCH_SIZE = 500;
+    private static final int DEFAULT_PERSIST_FLUSH_INTERVAL_MILLIS = 20;
+    private static final int DEFAULT_PERSIST_QUEUE_CAPACITY = 50_000;
+    private static final int DEFAULT_HISTORY_SIZE = 50;
+    private static final int DEFAULT_HISTORY_MAX_MESSAGES = 200_000;
+    private static final int DEFAULT_BROADCAST_PARALLEL_THRESHOLD = 2000;
+    private static final int DEFAULT_BROADCAST_MAX_CHATS = 1000;
+    private static final int DEFAULT_PRESENCE_OFFLINE_GRACE_MILLIS = 5000;
+    private static final int DEFAULT_PRESENCE_FLUSH_INTERVAL_MILLIS = 1000;
+    private static final int DEFAULT_RESUME_MAX_MESSAGES = 1000;
+    private static final int DEFAULT_MEMBERSHIP_MAX_IDS = 4_000_000;
+    private static final int DEFAULT_MEMBERSHIP_PRELOAD_CHATS = 1000;
+    private static final int DEFAULT_SEQUENCER_MAX_CHATS = 100_000;
+    private static final int DEFAULT_METRICS_PORT = 9404;
+    private static final int DEFAULT_MESSAGE_LOG_SAMPLE_RATE = 1000;
+    private static final int DEFAULT_AUTH_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int DEFAULT_AUTH_QUEUE_CAPACITY = 256;
+    private static final int DEFAULT_AUTH_SESSION_TTL_MINUTES = 12 * 60;
+
+    public enum ServerMode {
+        THREAD_POOL, VIRTUAL_THREADS, NIO
+    }
+
+    private final Properties props;
+
+    private ServerConfig(Properties props) {
+        this.props = props;
+    }
+
+    public static ServerConfig load() {
+        Properties props = new Properties();
+        try (FileInputStream fis = new FileInputStream(CONFIG_FILE)) {
+            props.load(fis);
+        } catch (IOException e) {
+            logger.warn("Could not load server configuration file, using defaults: {}", e.getMessage());
+        }
+        return new ServerConfig(props);
+    }
+
+    // System properties win over the file so a run script can switch modes without editing it
+    String get(String key, String defaultValue) {
+        return System.getProperty(key, props.getProperty(key, defaultValue));
+    }
+
+    int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value '{}' for {}, using {}", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public int getPort() {
+        return getInt("server.port", DEFAULT_PORT);
+    }
+
+    public ServerMode getMode() {
+        String value = get("server.mode", ServerMode.THREAD_POOL.name());
+        try {
+            return ServerMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown server mode '{}', using {}", value, ServerMode.THREAD_POOL);
+            return ServerMode.THREAD_POOL;
+        }
+    }
+
+    public int getMaxClients() {
+        return getInt("server.maxClients", DEFAULT_MAX_CLIENTS);
+    }
+
+    public int getIoThreads() {
+        return Math.max(1, getInt("server.ioThreads", DEFAULT_IO_THREADS));
+    }
+
+    public int getWorkerThreads() {
+        return Math.max(1, getInt("server.workerThreads", DEFAULT_WORKER_THREADS));
+    }
+
+    public int getRouterThreads() {
+        return Math.max(1, getInt("server.routerThreads", DEFAULT_ROUTER_THREADS));
+    }
+
+    public int getOutboundQueueCapacity() {
+        return Math.max(1, getInt("server.outboundQueueCapacity", DEFAULT_OUTBOUND_QUEUE_CAPACITY));
+    }
+
+    public int getFlushThresholdBytes() {
+        return Math.max(1024, getInt("server.flushThresholdBytes", DEFAULT_FLUSH_THRESHOLD_BYTES));
+    }
+
+    public int getMaxFlushDelayMillis() {
+        return Math.max(0, getInt("server.maxFlushDelayMillis", DEFAULT_MAX_FLUSH_DELAY_MILLIS));
+    }
+
+    public OutboundQueue.SlowConsumerPolicy getSlowConsumerPolicy() {
+        String value = get("server.slowConsumerPolicy", OutboundQueue.SlowConsumerPolicy.DROP_OLDEST.name());
+        try {
+            return OutboundQueue.SlowConsumerPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown slow consumer policy '{}', using {}", value, OutboundQueue.SlowConsumerPolicy.DROP_OLDEST);
+            return OutboundQueue.SlowConsumerPolicy.DROP_OLDEST;
+        }
+    }
+
+    public int getPersistBatchSize() {
+        return Math.max(1, getInt("server.persist.batchSize", DEFAULT_PERSIST_BATCH_SIZE));
+    }
+
+    public int getPersistFlushIntervalMillis() {
+        return Math.max(0, getInt("server.persist.flushIntervalMillis", DEFAULT_PERSIST_FLUSH_INTERVAL_MILLIS));
+    }
+
+    public int getPersistQueueCapacity() {
+        return Math.max(1, getInt("server.persist.queueCapacity", DEFAULT_PERSIST_QUEUE_CAPACITY));
+    }
+
+    public MessagePersister.Durability getPersistDurability() {
+        String value = get("server.persist.durability", MessagePersister.Durability.ASYNC.name());
+        try {
+            return MessagePersister.Durability.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown durability '{}', using {}", value, MessagePersister.Durability.ASYNC);
+            return MessagePersister.Durability.ASYNC;
+        }
+    }
+
+    public int getHistorySize() {
+        return Math.max(1, getInt("server.history.size", DEFAULT_HISTORY_SIZE));
+    }
+
+    public int getHistoryMaxMessages() {
+        return Math.max(1, getInt("server.history.maxMessages", DEFAULT_HISTORY_MAX_MESSAGES));
+    }
+
+    public int getBroadcastThreads() {
+        return Math.max(1, getInt("server.broadcast.threads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public int getBroadcastParallelThreshold() {
+        return Math.max(1, getInt("server.broadcast.parallelThreshold", DEFAULT_BROADCAST_PARALLEL_THRESHOLD));
+    }
+
+    public int getBroadcastMaxChats() {
+        return Math.max(1, getInt("server.broadcast.maxChats", DEFAULT_BROADCAST_MAX_CHATS));
+    }
+
+    public int getPresenceOfflineGraceMillis() {
+        return Math.max(0, getInt("server.presence.offlineGraceMillis", DEFAULT_PRESENCE_OFFLINE_GRACE_MILLIS));
+    }
+
+    public int getPresenceFlushIntervalMillis() {
+        return Math.max(10, getInt("server.presence.flushIntervalMillis", DEFAULT_PRESENCE_FLUSH_INTERVAL_MILLIS));
+    }
+
+    public int getResumeMaxMessages() {
+        return Math.max(1, getInt("server.resume.maxMessages", DEFAULT_RESUME_MAX_MESSAGES));
+    }
+
+    public int getMembershipMaxIds() {
+        return Math.max(1, getInt("server.membership.maxIds", DEFAULT_MEMBERSHIP_MAX_IDS));
+    }
+
+    // 0 loads every chat's members lazily
+    public int getMembershipPreloadChats() {
+        return Math.max(0, getInt("server.membership.preloadChats", DEFAULT_MEMBERSHIP_PRELOAD_CHATS));
+    }
+
+    public int getSequencerMaxChats() {
+        return Math.max(1, getInt("server.sequencer.maxChats", DEFAULT_SEQUENCER_MAX_CHATS));
+    }
+
+    // 0 turns the metrics endpoint off
+    public int getMetricsPort() {
+        return Math.max(0, getInt("server.metrics.port", DEFAULT_METRICS_PORT));
+    }
+
+    public String getMetricsHost() {
+        return get("server.metrics.host", "127.0.0.1").trim();
+    }
+
+    // One in this many routed messages is logged at DEBUG; 1 logs them all
+    public int getMessageLogSampleRate() {
+        return Math.max(1, getInt("server.log.messageSampleRate", DEFAULT_MESSAGE_LOG_SAMPLE_RATE));
+    }
+
+    // Password checks are CPU-bound; half the cores by default leaves the rest for routing
+    public int getAuthThreads() {
+        return Math.max(1, getInt("server.auth.threads", DEFAULT_AUTH_THREADS));
+    }
+
+    public int getAuthQueueCapacity() {
+        return Math.max(1, getInt("server.auth.queueCapacity", DEFAULT_AUTH_QUEUE_CAPACITY));
+    }
+
+    public int getAuthSessionTtlMinutes() {
+        return Math.max(1, getInt("server.auth.sessionTtlMinutes", DEFAULT_AUTH_SESSION_TTL_MINUTES));
+    }
+}
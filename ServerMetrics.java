@@ -0,0 +1,143 @@
+package com.chatapp.server;
+
+import com.chatapp.database.ConnectionPool;
+import com.chatapp.metrics.LatencyHistogram;
+import com.chatapp.model.Message;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-wide counters and latency histograms, rendered in the Prometheus text format by
+ * {@link MetricsEndpoint}. Everything is a LongAdder underneath, so the hot paths that record
+ * into it never block on each other or on a scrape.
+ */
+public class ServerMetrics {
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder[] inboundMessages = new LongAdder[TYPES.length];
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder fanOutRecipients = new LongAdder();
+    private final LongAdder outboundFrames = new LongAdder();
+    private final LongAdder outboundBytes = new LongAdder();
+    private final LatencyHistogram decodeLatency = new LatencyHistogram();
+    private final LatencyHistogram handleLatency = new LatencyHistogram();
+    private final LatencyHistogram fanOutLatency = new LatencyHistogram();
+    private final LatencyHistogram routeLatency = new LatencyHistogram();
+
+    public ServerMetrics() {
+        for (int i = 0; i < inboundMessages.length; i++) {
+            inboundMessages[i] = new LongAdder();
+        }
+    }
+
+    void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    void recordInbound(Message.MessageType type) {
+        if (type != null) {
+            inboundMessages[type.ordinal()].increment();
+        }
+    }
+
+    void recordDroppedMessage() {
+        droppedMessages.increment();
+    }
+
+    void recordFanOut(int recipients, long startNanos) {
+        fanOutLatency.recordSince(startNanos);
+        fanOutRecipients.add(recipients);
+    }
+
+    void recordOutbound(int bytes) {
+        outboundFrames.increment();
+        outboundBytes.add(bytes);
+    }
+
+    LatencyHistogram getDecodeLatency() {
+        return decodeLatency;
+    }
+
+    LatencyHistogram getHandleLatency() {
+        return handleLatency;
+    }
+
+    LatencyHistogram getRouteLatency() {
+        return routeLatency;
+    }
+
+    public long getOpenConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    /**
+     * Everything in the Prometheus text exposition format, including the gauges read from
+     * the server, its outbound queues and the database pool at the time of the call.
+     */
+    public String scrape(ChatServer server, ConnectionPool pool) {
+        StringBuilder out = new StringBuilder(8192);
+        gauge(out, "chat_connections", "Open client connections", getOpenConnections());
+        counter(out, "chat_connections_opened_total", "Client connections accepted", connectionsOpened.sum());
+        gauge(out, "chat_online_users", "Users with a connection bound to them", server.getClientCount());
+
+        out.append("# HELP chat_inbound_messages_total Messages received from clients, by type\n");
+        out.append("# TYPE chat_inbound_messages_total counter\n");
+        for (Message.MessageType type : TYPES) {
+            out.append("chat_inbound_messages_total{type=\"").append(type.name()).append("\"} ")
+                .append(inboundMessages[type.ordinal()].sum()).append('\n');
+        }
+        counter(out, "chat_dropped_messages_total",
+            "Chat messages dropped before sequencing: message store full or chat lookups failing",
+            droppedMessages.sum());
+        decodeLatency.writeTo(out, "chat_decode_seconds",
+            "Time to decode an inbound frame (NIO transport, where reading and decoding are separate)");
+        handleLatency.writeTo(out, "chat_handle_seconds", "Time to handle an inbound message once decoded");
+        routeLatency.writeTo(out, "chat_route_seconds",
+            "Time from routing a message to queueing it for its recipients (socket writes not included)");
+        fanOutLatency.writeTo(out, "chat_fanout_seconds", "Time to queue one message for a set of recipients");
+        counter(out, "chat_fanout_recipients_total", "Recipients a message was queued for", fanOutRecipients.sum());
+
+        counter(out, "chat_outbound_frames_total", "Frames queued to clients", outboundFrames.sum());
+        counter(out, "chat_outbound_bytes_total", "Bytes queued to clients", outboundBytes.sum());
+        OutboundStats outbound = server.getOutboundStats();
+        counter(out, "chat_outbound_dropped_total", "Frames dropped for slow clients", outbound.getDroppedMessages());
+        counter(out, "chat_slow_consumer_disconnects_total", "Clients disconnected for falling behind",
+            outbound.getSlowConsumerDisconnects());
+        gauge(out, "chat_outbound_queue_peak", "Deepest outbound queue seen", outbound.getPeakQueueDepth());
+
+        ChatMembershipIndex membership = server.getMembershipIndex();
+        gauge(out, "chat_membership_cached_ids", "User and chat ids held by the membership index",
+            membership.getCachedIdCount());
+        counter(out, "chat_membership_loads_total", "Membership index entries read from the database",
+            membership.getLoadCount());
+        counter(out, "chat_membership_evictions_total", "Membership index entries dropped to stay under the cap",
+            membership.getEvictionCount());
+
+        gauge(out, "db_pool_active_connections", "Database connections borrowed", pool.getActiveCount());
+        gauge(out, "db_pool_idle_connections", "Database connections idle in the pool", pool.getIdleCount());
+        pool.getAcquireLatency().writeTo(out, "db_connection_acquire_seconds", "Time to borrow a pooled connection");
+        pool.getQueryLatency().writeTo(out, "db_query_seconds", "Time to run a query");
+        pool.getUpdateLatency().writeTo(out, "db_update_seconds", "Time to run an update or a batch");
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "counter", value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "gauge", value);
+    }
+
+    private static void metric(StringBuilder out, String name, String help, String type, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,87 @@
+package com.chatapp.server;
+
+import com.chatapp.model.User;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Session tokens handed out after a password check, so a client that reconnects proves who it
+ * is with one map lookup instead of another key derivation. Tokens are random, expire a fixed
+ * time after login, and live only in memory: a server restart logs everyone out.
+ */
+public class SessionTokenCache {
+    private static final int TOKEN_BYTES = 32;
+    // Expired sessions are only found on lookup, so sweep them out every so many logins
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlNanos;
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger issuedSinceSweep = new AtomicInteger();
+
+    public SessionTokenCache(long ttlNanos) {
+        this.ttlNanos = ttlNanos;
+    }
+
+    public Session issue(User user) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        Session session = new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes),
+                user, System.nanoTime() + ttlNanos);
+        sessions.put(session.getToken(), session);
+        if (issuedSinceSweep.incrementAndGet() >= SWEEP_INTERVAL) {
+            issuedSinceSweep.set(0);
+            long now = System.nanoTime();
+            sessions.values().removeIf(s -> s.isExpired(now));
+        }
+        return session;
+    }
+
+    /**
+     * The user a token was issued to, or null if the token is unknown, has expired, or belongs
+     * to someone other than userId.
+     */
+    public User lookup(int userId, String token) {
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        if (session.isExpired(System.nanoTime())) {
+            sessions.remove(token, session);
+            return null;
+        }
+        return session.getUser().getId() == userId ? session.getUser() : null;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public static final class Session {
+        private final String token;
+        private final User user;
+        private final long expiresAt;
+
+        Session(String token, User user, long expiresAt) {
+            this.token = token;
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        public User getUser() {
+            return user;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
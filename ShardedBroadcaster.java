@@ -0,0 +1,261 @@
+package com.chatapp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fans large chats out in parallel. Recipients are split by user id over single-threaded
+ * broadcast workers, so a given recipient is always served by the same worker and gets a
+ * chat's messages in the order they were routed. Chats below the threshold are delivered
+ * on the calling router stripe, as before. The shards of at most maxChats large chats are
+ * kept; past that, the least recently used idle ones are dropped and rebuilt when needed.
+ */
+public class ShardedBroadcaster {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedBroadcaster.class);
+
+    private final ChatServer server;
+    private final int threshold;
+    private final int maxChats;
+    private final ExecutorService[] workers;
+    // Shards of each large chat, rebuilt when the membership index hands out a new array
+    private final ConcurrentMap<Integer, Partition> partitions = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public ShardedBroadcaster(ChatServer server, int threads, int threshold, int maxChats) {
+        this.server = server;
+        this.threshold = threshold;
+        this.maxChats = Math.max(1, maxChats);
+        this.workers = new ExecutorService[threads];
+        for (int i = 0; i < threads; i++) {
+            String name = "chat-broadcast-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Delivers to every member but excludedUserId (0 excludes nobody). Must be called from
+     * the chat's router stripe, which keeps the partition bookkeeping of one chat single-threaded.
+     */
+    public void broadcast(int chatId, EncodedMessage message, int[] members, int excludedUserId) {
+        Partition partition = hold(chatId);
+        try {
+            boolean large = members.length >= threshold && workers.length > 1;
+            // A chat that just shrank below the threshold keeps going through the workers until
+            // they have caught up (the hold above aside), or its next message could overtake
+            // the previous one
+            if (!large && (partition == null || partition.inFlight.get() == 1)) {
+                if (partition != null) {
+                    partitions.remove(chatId, partition);
+                }
+                server.broadcastMessage(message, members, excludedUserId);
+                return;
+            }
+
+            if (partition == null || partition.members != members) {
+                Partition previous = partition;
+                partition = new Partition(chatId, members, workers.length, previous);
+                if (previous == null) {
+                    // Held from the start, like one returned by hold
+                    partition.inFlight.incrementAndGet();
+                }
+                partitions.put(chatId, partition);
+                if (previous == null) {
+                    evictIfNeeded();
+                }
+            }
+            fanOut(partition, message, excludedUserId);
+        } finally {
+            if (partition != null) {
+                partition.inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private void fanOut(Partition partition, EncodedMessage message, int excludedUserId) {
+        int shardCount = 0;
+        for (int[] shard : partition.shards) {
+            if (shard.length > 0) {
+                shardCount++;
+            }
+        }
+        // Recorded once for the whole message, by whichever shard finishes last
+        long start = System.nanoTime();
+        AtomicInteger remaining = new AtomicInteger(shardCount);
+        AtomicInteger recipients = new AtomicInteger();
+        AtomicInteger inFlight = partition.inFlight;
+        for (int w = 0; w < workers.length; w++) {
+            int[] shard = partition.shards[w];
+            if (shard.length == 0) {
+                continue;
+            }
+            inFlight.incrementAndGet();
+            workers[w].execute(() -> {
+                try {
+                    recipients.addAndGet(server.sendToAll(message, shard, excludedUserId));
+                } catch (RuntimeException e) {
+                    logger.error("Broadcast shard failed", e);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        server.getMetrics().recordFanOut(recipients.get(), start);
+                    }
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs a send to one member of a chat in order with the chat's broadcasts to that member:
+     * on the member's worker while the chat is being fanned out in parallel, otherwise right
+     * away. Must be called from the chat's router stripe, like broadcast.
+     */
+    public void sendInOrder(int chatId, int userId, Runnable send) {
+        Partition partition = hold(chatId);
+        if (partition == null) {
+            send.run();
+            return;
+        }
+        AtomicInteger inFlight = partition.inFlight;
+        try {
+            inFlight.incrementAndGet();
+            workers[Partition.shardOf(userId, workers.length)].execute(() -> {
+                try {
+                    send.run();
+                } catch (RuntimeException e) {
+                    logger.error("Send to user {} failed", userId, e);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    // The chat's partition with one more in flight, so eviction can't retire it while the
+    // caller decides where to send; null if it has none or it was just retired as idle
+    private Partition hold(int chatId) {
+        Partition partition = partitions.get(chatId);
+        if (partition == null) {
+            return null;
+        }
+        AtomicInteger inFlight = partition.inFlight;
+        int count;
+        do {
+            count = inFlight.get();
+            if (count < 0) {
+                // Nothing of a retired partition is still queued, so sending directly is in order
+                partitions.remove(chatId, partition);
+                return null;
+            }
+        } while (!inFlight.compareAndSet(count, count + 1));
+        partition.lastUsed = System.nanoTime();
+        return partition;
+    }
+
+    // Only partitions with nothing in flight are retired, so no chat loses track of shards
+    // still queued on the workers
+    private void evictIfNeeded() {
+        if (partitions.size() <= maxChats || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Partition> candidates = new ArrayList<>(partitions.values());
+            candidates.sort(Comparator.comparingLong(partition -> partition.lastUsed));
+
+            int target = maxChats - maxChats / 10;
+            int size = partitions.size();
+            for (Partition partition : candidates) {
+                if (size <= target) {
+                    break;
+                }
+                if (partition.inFlight.compareAndSet(0, Partition.RETIRED)) {
+                    partitions.remove(partition.chatId, partition);
+                    size--;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    int getPartitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * Waits until every broadcast handed to the workers so far has been delivered.
+     */
+    public void awaitIdle() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(workers.length);
+        for (ExecutorService worker : workers) {
+            worker.execute(done::countDown);
+        }
+        done.await();
+    }
+
+    public void shutdown() {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        try {
+            for (ExecutorService worker : workers) {
+                worker.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Partition {
+        static final int RETIRED = -1;
+
+        final int chatId;
+        final int[] members;
+        final int[][] shards;
+        // Shared with the partition it replaces, since that one's shards may still be queued.
+        // RETIRED once eviction has dropped it while idle, after which it is never used again
+        final AtomicInteger inFlight;
+        volatile long lastUsed;
+
+        Partition(int chatId, int[] members, int shardCount, Partition previous) {
+            this.chatId = chatId;
+            this.members = members;
+            this.lastUsed = System.nanoTime();
+            this.inFlight = previous != null ? previous.inFlight : new AtomicInteger();
+            int[] sizes = new int[shardCount];
+            for (int userId : members) {
+                sizes[shardOf(userId, shardCount)]++;
+            }
+            shards = new int[shardCount][];
+            for (int s = 0; s < shardCount; s++) {
+                shards[s] = new int[sizes[s]];
+                sizes[s] = 0;
+            }
+            for (int userId : members) {
+                int s = shardOf(userId, shardCount);
+                shards[s][sizes[s]++] = userId;
+            }
+        }
+
+        private static int shardOf(int userId, int shardCount) {
+            return Math.floorMod(userId * 0x9E3779B9, shardCount);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.chatapp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class SocketConnection implements ClientConnection {
+    private static final Logger logger = LoggerFactory.getLogger(SocketConnection.class);
+
+    private final Socket socket;
+    private final OutputStream output;
+    private final Executor writerPool;
+    private final long maxFlushDelayNanos;
+    private final AtomicBoolean writeScheduled;
+
+    SocketConnection(Socket socket, Executor writerPool, int flushThresholdBytes, long maxFlushDelayMillis)
+            throws IOException {
+        this.socket = socket;
+        // No autoflush: bytes reach the socket when the buffer fills or the drain below flushes
+        this.output = new BufferedOutputStream(socket.getOutputStream(), flushThresholdBytes);
+        this.writerPool = writerPool;
+        this.maxFlushDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxFlushDelayMillis);
+        this.writeScheduled = new AtomicBoolean();
+    }
+
+    @Override
+    public void requestWrite(OutboundQueue queue) {
+        if (!writeScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            writerPool.execute(() -> drain(queue));
+        } catch (RejectedExecutionException e) {
+            writeScheduled.set(false);
+        }
+    }
+
+    // Runs on the writer pool, so a stalled receiver only blocks its own drain. Everything
+    // queued is written before a single flush; a long burst is still flushed every
+    // maxFlushDelay so the first messages aren't held back until it ends.
+    private void drain(OutboundQueue queue) {
+        try {
+            do {
+                long flushDeadline = System.nanoTime() + maxFlushDelayNanos;
+                byte[] frame;
+                while ((frame = queue.poll()) != null) {
+                    output.write(frame);
+                    if (System.nanoTime() - flushDeadline >= 0) {
+                        output.flush();
+                        flushDeadline = System.nanoTime() + maxFlushDelayNanos;
+                    }
+                }
+                output.flush();
+                writeScheduled.set(false);
+            } while (!queue.isEmpty() && writeScheduled.compareAndSet(false, true));
+        } catch (IOException e) {
+            // Leave writeScheduled set: nothing more can be written, and the reader side will disconnect
+            logger.debug("Write failed for {}: {}", getRemoteAddress(), e.getMessage());
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            logger.error("Error closing client socket", e);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !socket.isClosed();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return String.valueOf(socket.getInetAddress());
+    }
+}
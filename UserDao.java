@@ -0,0 +1,91 @@
+package com.chatapp.database;
+
+import com.chatapp.model.User;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/**
+ * Reads and writes the users table. Statements go through the pool's per-connection
+ * statement cache, and every lookup is a single query on the primary key or a unique index.
+ */
+public class UserDao {
+    private static final String COLUMNS = "id, username, email, password_hash, created_at, last_login, is_online";
+    private static final String SELECT_BY_USERNAME = "SELECT " + COLUMNS + " FROM users WHERE username = ?";
+    private static final String SELECT_BY_ID = "SELECT " + COLUMNS + " FROM users WHERE id = ?";
+    private static final String INSERT_USER =
+        "INSERT INTO users (username, email, password_hash) VALUES (?, ?, ?)";
+
+    private final ConnectionPool pool;
+
+    public UserDao(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public User findByUsername(String username) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_BY_USERNAME)) {
+            stmt.setString(1, username);
+            return readOne(stmt);
+        }
+    }
+
+    public User findById(int userId) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_BY_ID)) {
+            stmt.setInt(1, userId);
+            return readOne(stmt);
+        }
+    }
+
+    /**
+     * Inserts a user and returns it with its new id, or null if the username or email is
+     * already taken. The unique indexes decide, so there is no separate existence check.
+     */
+    public User create(String username, String email, String passwordHash) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(INSERT_USER, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, username);
+            stmt.setString(2, email);
+            stmt.setString(3, passwordHash);
+            try {
+                stmt.executeUpdate();
+            } catch (SQLIntegrityConstraintViolationException e) {
+                return null;
+            }
+            User user = new User(username, email, passwordHash);
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                if (keys.next()) {
+                    user.setId(keys.getInt(1));
+                }
+            }
+            return user;
+        }
+    }
+
+    private static User readOne(PreparedStatement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? map(rs) : null;
+        }
+    }
+
+    // By position, in COLUMNS order
+    private static User map(ResultSet rs) throws SQLException {
+        User user = new User();
+        user.setId(rs.getInt(1));
+        user.setUsername(rs.getString(2));
+        user.setEmail(rs.getString(3));
+        user.setPasswordHash(rs.getString(4));
+        Timestamp createdAt = rs.getTimestamp(5);
+        user.setCreatedAt(createdAt != null ? createdAt.toLocalDateTime() : null);
+        Timestamp lastLogin = rs.getTimestamp(6);
+        user.setLastLogin(lastLogin != null ? lastLogin.toLocalDateTime() : null);
+        user.setOnline(rs.getBoolean(7));
+        return user;
+    }
+}
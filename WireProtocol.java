@@ -0,0 +1,55 @@
+package com.chatapp.protocol;
+
+import com.chatapp.model.Message;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * How messages are framed on a connection. Every connection starts as newline-delimited
+ * JSON. A client that wants the binary encoding sends {@link #BINARY_HANDSHAKE} as its first
+ * line; a server that supports it answers with the same line and both sides switch to
+ * {@link BinaryMessageCodec} frames right after it. Servers that don't answer leave the
+ * client on JSON.
+ */
+public enum WireProtocol {
+    JSON {
+        @Override
+        public byte[] encode(Message message) throws IOException {
+            byte[] json = MessageJson.write(message);
+            byte[] line = Arrays.copyOf(json, json.length + 1);
+            line[json.length] = '\n';
+            return line;
+        }
+    },
+    BINARY {
+        @Override
+        public byte[] encode(Message message) {
+            return BinaryMessageCodec.encodeFrame(message);
+        }
+    };
+
+    public static final String BINARY_HANDSHAKE = "PROTOCOL BINARY";
+
+    private static final byte[] HANDSHAKE_BYTES = BINARY_HANDSHAKE.getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Encodes a message as it goes on the wire, terminator or length prefix included.
+     */
+    public abstract byte[] encode(Message message) throws IOException;
+
+    /**
+     * The handshake line, newline included.
+     */
+    public static byte[] handshakeLine() {
+        byte[] line = Arrays.copyOf(HANDSHAKE_BYTES, HANDSHAKE_BYTES.length + 1);
+        line[HANDSHAKE_BYTES.length] = '\n';
+        return line;
+    }
+
+    public static boolean isHandshake(byte[] line, int length) {
+        return length == HANDSHAKE_BYTES.length
+            && Arrays.equals(line, 0, length, HANDSHAKE_BYTES, 0, length);
+    }
+}
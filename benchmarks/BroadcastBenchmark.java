@@ -0,0 +1,90 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChatServer.broadcastMessage fan-out to N connected clients. Each client is a real
+ * ClientHandler on an in-process connection whose writer drains the outbound queue
+ * immediately, so the score is the cost of routing, encoding and queueing alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int recipients;
+
+    @Param({"json", "binary"})
+    public String protocol;
+
+    private ChatServer server;
+    private int[] members;
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Keep the server's DatabaseManager off MySQL
+        System.setProperty("db.url", "jdbc:h2:mem:broadcast;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("db.username", "sa");
+        System.setProperty("db.password", "");
+        server = new ChatServer();
+
+        members = new int[recipients];
+        for (int i = 0; i < recipients; i++) {
+            int userId = i + 1;
+            members[i] = userId;
+            ClientHandler handler = new ClientHandler(new DrainingConnection(), server);
+            if ("binary".equals(protocol)) {
+                handler.useBinaryProtocol();
+            }
+            User user = new User();
+            user.setId(userId);
+            user.setUsername("user" + userId);
+            handler.setUser(user);
+        }
+
+        message = new Message(1, 1057, "Are we still on for the design review at three?", Message.MessageType.TEXT);
+        message.setId(9_482_117);
+        message.setSenderUsername("user1");
+    }
+
+    @Benchmark
+    public void fanOut() {
+        server.broadcastMessage(new EncodedMessage(message), members, 1);
+    }
+
+    // Stands in for a socket: the "write" just takes everything off the queue
+    static class DrainingConnection implements ClientConnection {
+        long bytesWritten;
+
+        @Override
+        public void requestWrite(OutboundQueue queue) {
+            byte[] frame;
+            while ((frame = queue.poll()) != null) {
+                bytesWritten += frame.length;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "in-process";
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.chatapp.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat participant lookups and group building at increasing group sizes. Half of the
+ * isParticipant probes are members and half are not. onlineMembers intersects the group
+ * with an online set covering every other user id.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatParticipantsBenchmark {
+    private static final int PROBES = 1024;
+
+    @Param({"10", "1000", "10000"})
+    public int groupSize;
+
+    private Chat chat;
+    private ParticipantSet online;
+    private int[] probes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        chat = buildGroup();
+        Random random = new Random(42);
+        probes = new int[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            probes[i] = 1 + random.nextInt(groupSize * 2);
+        }
+        int[] onlineIds = new int[groupSize];
+        for (int i = 0; i < groupSize; i++) {
+            onlineIds[i] = 1 + i * 2;
+        }
+        online = ParticipantSet.of(onlineIds);
+    }
+
+    private Chat buildGroup() {
+        Chat group = new Chat("benchmark group", Chat.ChatType.GROUP, 1);
+        for (int userId = 1; userId <= groupSize; userId++) {
+            group.addParticipant(userId);
+        }
+        return group;
+    }
+
+    @Benchmark
+    public boolean isParticipant() {
+        next = (next + 1) & (PROBES - 1);
+        return chat.isParticipant(probes[next]);
+    }
+
+    @Benchmark
+    public ParticipantSet onlineMembers() {
+        return chat.getParticipants().intersection(online);
+    }
+
+    // Cost of a whole group joining one by one; divide by groupSize for a single add
+    @Benchmark
+    public Chat addParticipants() {
+        return buildGroup();
+    }
+}
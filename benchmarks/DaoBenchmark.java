@@ -0,0 +1,164 @@
+package com.chatapp.database;
+
+import com.chatapp.model.Chat;
+import com.chatapp.model.Message;
+import com.chatapp.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The DAO read paths against H2 in MySQL mode, on the schema DatabaseManager creates:
+ * a login lookup, a user's chat list with participants, and a history page. The history
+ * page is also run the way MessageHistoryService used to read it, cursor lookup first and
+ * page second, to show what joining the cursor row in saves. Scores are operations per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DaoBenchmark {
+    private static final int USERS = 200;
+    private static final int CHATS = 100;
+    private static final int MEMBERS_PER_CHAT = 20;
+    private static final int MESSAGES_PER_CHAT = 500;
+    private static final int PAGE_SIZE = 50;
+
+    private DatabaseManager databaseManager;
+    private UserDao userDao;
+    private ChatDao chatDao;
+    private MessageDao messageDao;
+    private int[] cursorIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        System.setProperty("db.url", "jdbc:h2:mem:dao;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("db.username", "sa");
+        System.setProperty("db.password", "");
+        databaseManager = DatabaseManager.getInstance();
+        ConnectionPool pool = databaseManager.getPool();
+        userDao = new UserDao(pool);
+        chatDao = new ChatDao(pool);
+        messageDao = new MessageDao(pool);
+
+        String hash = PasswordHasher.hash("benchmark");
+        for (int i = 1; i <= USERS; i++) {
+            userDao.create("user" + i, "user" + i + "@example.com", hash);
+        }
+        for (int i = 0; i < CHATS; i++) {
+            Chat chat = new Chat("chat " + i, Chat.ChatType.GROUP, 1);
+            for (int m = 0; m < MEMBERS_PER_CHAT; m++) {
+                chat.addParticipant(1 + (i + m * 7) % USERS);
+            }
+            chatDao.create(chat);
+        }
+        insertMessages();
+
+        // Cursors in the middle of each chat's history, so every page is full
+        cursorIds = new int[CHATS];
+        for (int chatId = 1; chatId <= CHATS; chatId++) {
+            List<Message> latest = messageDao.getLatest(chatId, MESSAGES_PER_CHAT / 2);
+            cursorIds[chatId - 1] = latest.get(0).getId();
+        }
+    }
+
+    private void insertMessages() throws SQLException {
+        LocalDateTime start = LocalDateTime.now().minusDays(1);
+        try (Connection conn = databaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO messages (sender_id, chat_id, content, type, timestamp, seq) VALUES (?, ?, ?, ?, ?, ?)")) {
+                for (int chatId = 1; chatId <= CHATS; chatId++) {
+                    for (int seq = 1; seq <= MESSAGES_PER_CHAT; seq++) {
+                        stmt.setInt(1, 1 + seq % USERS);
+                        stmt.setInt(2, chatId);
+                        stmt.setString(3, "benchmark message " + seq);
+                        stmt.setString(4, "TEXT");
+                        stmt.setTimestamp(5, Timestamp.valueOf(start.plusSeconds(seq)));
+                        stmt.setLong(6, seq);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+            }
+            conn.commit();
+        }
+    }
+
+    @Benchmark
+    public User findUserByUsername() throws SQLException {
+        return userDao.findByUsername("user" + (1 + next++ % USERS));
+    }
+
+    @Benchmark
+    public List<Chat> findChatsByUser() throws SQLException {
+        return chatDao.findByUser(1 + next++ % USERS);
+    }
+
+    @Benchmark
+    public List<Message> historyPageJoinedCursor() throws SQLException {
+        int chatId = 1 + next++ % CHATS;
+        return messageDao.getBefore(chatId, cursorIds[chatId - 1], PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Message> historyPageCursorLookupFirst() throws SQLException {
+        int chatId = 1 + next++ % CHATS;
+        int beforeId = cursorIds[chatId - 1];
+        try (Connection conn = databaseManager.getConnection()) {
+            Timestamp beforeTimestamp;
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT timestamp FROM messages WHERE id = ? AND chat_id = ?")) {
+                stmt.setInt(1, beforeId);
+                stmt.setInt(2, chatId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    beforeTimestamp = rs.getTimestamp(1);
+                }
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT id, sender_id, chat_id, seq, content, type, timestamp, is_read FROM messages " +
+                    "WHERE chat_id = ? AND (timestamp < ? OR (timestamp = ? AND id < ?)) " +
+                    "ORDER BY timestamp DESC, id DESC LIMIT ?")) {
+                stmt.setInt(1, chatId);
+                stmt.setTimestamp(2, beforeTimestamp);
+                stmt.setTimestamp(3, beforeTimestamp);
+                stmt.setInt(4, beforeId);
+                stmt.setInt(5, PAGE_SIZE);
+                List<Message> page = new ArrayList<>(PAGE_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Message message = new Message();
+                        message.setId(rs.getInt("id"));
+                        message.setSenderId(rs.getInt("sender_id"));
+                        message.setChatId(rs.getInt("chat_id"));
+                        message.setSequence(rs.getLong("seq"));
+                        message.setContent(rs.getString("content"));
+                        message.setType(Message.MessageType.valueOf(rs.getString("type")));
+                        message.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
+                        message.setRead(rs.getBoolean("is_read"));
+                        page.add(message);
+                    }
+                }
+                return page;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        databaseManager.shutdown();
+    }
+}
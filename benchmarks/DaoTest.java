@@ -0,0 +1,291 @@
+package com.chatapp.database;
+
+import com.chatapp.model.Chat;
+import com.chatapp.model.Message;
+import com.chatapp.model.User;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * UserDao, ChatDao and MessageDao against H2 in MySQL mode, on the schema DatabaseManager
+ * creates. Each test makes its own users and chats, so they don't depend on each other's rows.
+ */
+public class DaoTest {
+    // Every third message shares its timestamp with the one before, so pages have to break
+    // ties on id
+    private static final int MESSAGES = 100;
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    private static DatabaseManager databaseManager;
+    private static UserDao userDao;
+    private static ChatDao chatDao;
+    private static MessageDao messageDao;
+    private static int users;
+
+    @BeforeAll
+    public static void setUp() {
+        System.setProperty("db.url", "jdbc:h2:mem:daotest;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("db.username", "sa");
+        System.setProperty("db.password", "");
+        databaseManager = DatabaseManager.getInstance();
+        ConnectionPool pool = databaseManager.getPool();
+        userDao = new UserDao(pool);
+        chatDao = new ChatDao(pool);
+        messageDao = new MessageDao(pool);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        databaseManager.shutdown();
+    }
+
+    @Test
+    public void userRoundTrip() throws SQLException {
+        User created = userDao.create("alice", "alice@example.com", "hash-a");
+        assertNotNull(created);
+        assertTrue(created.getId() > 0);
+
+        User byName = userDao.findByUsername("alice");
+        assertEquals(created.getId(), byName.getId());
+        assertEquals("alice", byName.getUsername());
+        assertEquals("alice@example.com", byName.getEmail());
+        assertEquals("hash-a", byName.getPasswordHash());
+        assertNotNull(byName.getCreatedAt());
+        assertNull(byName.getLastLogin());
+        assertFalse(byName.isOnline());
+
+        User byId = userDao.findById(created.getId());
+        assertEquals("alice", byId.getUsername());
+        assertNull(userDao.findByUsername("nobody"));
+        assertNull(userDao.findById(-1));
+    }
+
+    @Test
+    public void createReturnsNullWhenUsernameOrEmailTaken() throws SQLException {
+        assertNotNull(userDao.create("bob", "bob@example.com", "hash"));
+        assertNull(userDao.create("bob", "other@example.com", "hash"));
+        assertNull(userDao.create("robert", "bob@example.com", "hash"));
+        assertEquals("bob@example.com", userDao.findByUsername("bob").getEmail());
+        assertNull(userDao.findByUsername("robert"));
+    }
+
+    @Test
+    public void chatRoundTrip() throws SQLException {
+        int creator = newUser();
+        int member = newUser();
+        int outsider = newUser();
+        Chat chat = new Chat("team", Chat.ChatType.GROUP, creator);
+        chat.addParticipant(member);
+        chat.addParticipant(creator);
+        chatDao.create(chat);
+        assertTrue(chat.getId() > 0);
+
+        Chat found = chatDao.findById(chat.getId());
+        assertEquals("team", found.getName());
+        assertEquals(Chat.ChatType.GROUP, found.getType());
+        assertEquals(creator, found.getCreatorId());
+        assertNotNull(found.getCreatedAt());
+        assertArrayEquals(sorted(creator, member), found.getParticipants().toArray());
+
+        assertArrayEquals(sorted(creator, member), chatDao.getParticipantIds(chat.getId()));
+        assertArrayEquals(new int[] {chat.getId()}, chatDao.getChatIds(member));
+        assertEquals(0, chatDao.getChatIds(outsider).length);
+        List<Chat> ofMember = chatDao.findByUser(member);
+        assertEquals(1, ofMember.size());
+        assertEquals(2, ofMember.get(0).getParticipantCount());
+        assertNull(chatDao.findById(-1));
+    }
+
+    @Test
+    public void addParticipantsIgnoresExistingMembers() throws SQLException {
+        int creator = newUser();
+        int first = newUser();
+        int second = newUser();
+        Chat chat = new Chat("ignore", Chat.ChatType.GROUP, creator);
+        chat.addParticipant(creator);
+        chat.addParticipant(first);
+        chatDao.create(chat);
+
+        // One new member in a batch of existing ones, and the same id twice in one batch
+        chatDao.addParticipants(chat.getId(), creator, second, first, second);
+        assertArrayEquals(sorted(creator, first, second), chatDao.getParticipantIds(chat.getId()));
+
+        assertTrue(chatDao.removeParticipant(chat.getId(), second));
+        assertFalse(chatDao.removeParticipant(chat.getId(), second));
+        assertArrayEquals(sorted(creator, first), chatDao.getParticipantIds(chat.getId()));
+    }
+
+    @Test
+    public void messageRoundTrip() throws SQLException {
+        int sender = newUser();
+        int chatId = newChat(sender);
+        int[] ids = insertMessages(chatId, sender, 1);
+
+        Message message = messageDao.getByIds(ids[0]).get(0);
+        assertEquals(ids[0], message.getId());
+        assertEquals(sender, message.getSenderId());
+        assertEquals(userDao.findById(sender).getUsername(), message.getSenderUsername());
+        assertEquals(chatId, message.getChatId());
+        assertEquals(1, message.getSequence());
+        assertEquals("message 1", message.getContent());
+        assertEquals(Message.MessageType.TEXT, message.getType());
+        assertEquals(START, message.getTimestamp());
+        assertFalse(message.isRead());
+        assertEquals(1, messageDao.getLastSequence(chatId));
+        assertEquals(0, messageDao.getLastSequence(newChat(sender)));
+    }
+
+    @Test
+    public void latestPageIsNewestMessagesOldestFirst() throws SQLException {
+        int sender = newUser();
+        int chatId = newChat(sender);
+        int[] ids = insertMessages(chatId, sender, MESSAGES);
+
+        assertArrayEquals(Arrays.copyOfRange(ids, MESSAGES - 10, MESSAGES), idsOf(messageDao.getLatest(chatId, 10)));
+        assertNotNull(messageDao.getLatest(chatId, 1).get(0).getSenderUsername());
+        assertArrayEquals(ids, idsOf(messageDao.getLatest(chatId, MESSAGES + 10)));
+        assertEquals(0, messageDao.getLatest(newChat(sender), 10).size());
+    }
+
+    @Test
+    public void pagingBackwardsVisitsEveryMessageOnce() throws SQLException {
+        int sender = newUser();
+        int chatId = newChat(sender);
+        int[] ids = insertMessages(chatId, sender, MESSAGES);
+
+        // Page sizes that don't divide the chat, so the last page is short
+        List<Message> page = messageDao.getLatest(chatId, 7);
+        List<Integer> visited = new ArrayList<>();
+        while (!page.isEmpty()) {
+            for (int i = page.size() - 1; i >= 0; i--) {
+                visited.add(page.get(i).getId());
+            }
+            page = messageDao.getBefore(chatId, page.get(0).getId(), 7);
+        }
+        assertEquals(MESSAGES, visited.size());
+        for (int i = 0; i < MESSAGES; i++) {
+            assertEquals(ids[MESSAGES - 1 - i], visited.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void pageBeforeStopsAtCursorAndChat() throws SQLException {
+        int sender = newUser();
+        int chatId = newChat(sender);
+        int otherChatId = newChat(sender);
+        int[] ids = insertMessages(chatId, sender, MESSAGES);
+        int[] otherIds = insertMessages(otherChatId, sender, 5);
+
+        // A cursor sharing its timestamp with the message before it still gets that message
+        assertEquals(START.plusSeconds(1), messageDao.getByIds(ids[2]).get(0).getTimestamp());
+        assertEquals(START.plusSeconds(1), messageDao.getByIds(ids[1]).get(0).getTimestamp());
+        assertArrayEquals(new int[] {ids[0], ids[1]}, idsOf(messageDao.getBefore(chatId, ids[2], 10)));
+        assertArrayEquals(new int[] {ids[0]}, idsOf(messageDao.getBefore(chatId, ids[1], 10)));
+
+        assertEquals(0, messageDao.getBefore(chatId, ids[0], 10).size());
+        assertEquals(0, messageDao.getBefore(chatId, otherIds[4], 10).size());
+        assertEquals(0, messageDao.getBefore(chatId, -1, 10).size());
+    }
+
+    @Test
+    public void afterSequenceReturnsNewestAboveTheCursor() throws SQLException {
+        int sender = newUser();
+        int chatId = newChat(sender);
+        int[] ids = insertMessages(chatId, sender, MESSAGES);
+
+        assertArrayEquals(Arrays.copyOfRange(ids, 90, MESSAGES), idsOf(messageDao.getAfterSequence(chatId, 90, 50)));
+        // More missed than the limit: the newest ones are kept
+        assertArrayEquals(Arrays.copyOfRange(ids, MESSAGES - 5, MESSAGES), idsOf(messageDao.getAfterSequence(chatId, 0, 5)));
+        assertEquals(0, messageDao.getAfterSequence(chatId, MESSAGES, 50).size());
+    }
+
+    @Test
+    public void getByIdsSpansChunksAndSkipsMissingIds() throws SQLException {
+        int sender = newUser();
+        int chatId = newChat(sender);
+        int[] ids = insertMessages(chatId, sender, MESSAGES);
+
+        // Over two chunks of 32, out of order, with ids that don't exist. Sorted, the
+        // duplicates land at the start of the first chunk and either side of its end.
+        int[] requested = new int[72];
+        for (int i = 0; i < 70; i++) {
+            requested[i] = ids[69 - i];
+        }
+        requested[70] = -5;
+        requested[71] = ids[MESSAGES - 1] + 1000;
+        int[] withDuplicates = Arrays.copyOf(requested, requested.length + 2);
+        withDuplicates[72] = ids[29];
+        withDuplicates[73] = ids[0];
+
+        int[] expected = Arrays.copyOf(ids, 70);
+        assertArrayEquals(expected, idsOf(messageDao.getByIds(requested)));
+        assertArrayEquals(expected, idsOf(messageDao.getByIds(withDuplicates)));
+        assertArrayEquals(new int[] {ids[5]}, idsOf(messageDao.getByIds(ids[5], ids[5])));
+        assertEquals(0, messageDao.getByIds().size());
+        assertEquals(0, messageDao.getByIds(-1).size());
+    }
+
+    private static int newUser() throws SQLException {
+        String name = "user" + (++users);
+        return userDao.create(name, name + "@example.com", "hash").getId();
+    }
+
+    private static int newChat(int creator) throws SQLException {
+        Chat chat = new Chat("chat", Chat.ChatType.GROUP, creator);
+        chat.addParticipant(creator);
+        return chatDao.create(chat).getId();
+    }
+
+    // Sequenced from 1; returns the generated ids in sequence order
+    private static int[] insertMessages(int chatId, int senderId, int count) throws SQLException {
+        int[] ids = new int[count];
+        try (Connection conn = databaseManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                 "INSERT INTO messages (sender_id, chat_id, content, type, timestamp, seq) VALUES (?, ?, ?, ?, ?, ?)",
+                 Statement.RETURN_GENERATED_KEYS)) {
+            for (int seq = 1; seq <= count; seq++) {
+                stmt.setInt(1, senderId);
+                stmt.setInt(2, chatId);
+                stmt.setString(3, "message " + seq);
+                stmt.setString(4, "TEXT");
+                stmt.setTimestamp(5, Timestamp.valueOf(START.plusSeconds(seq - 1 - seq / 3)));
+                stmt.setLong(6, seq);
+                stmt.executeUpdate();
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    keys.next();
+                    ids[seq - 1] = keys.getInt(1);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static int[] idsOf(List<Message> messages) {
+        return messages.stream().mapToInt(Message::getId).toArray();
+    }
+
+    private static int[] sorted(int... ids) {
+        int[] copy = ids.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+}
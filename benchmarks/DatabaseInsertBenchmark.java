@@ -0,0 +1,91 @@
+package com.chatapp.database;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Insert paths through DatabaseManager's pool against H2 in MySQL mode, on the schema
+ * DatabaseManager creates (foreign keys and indexes included): one autocommit INSERT per
+ * message versus a JDBC batch in one transaction. Scores are rows per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatabaseInsertBenchmark {
+    static final int BATCH_SIZE = 100;
+    private static final int USERS = 50;
+    private static final int CHATS = 100;
+    private static final String INSERT_MESSAGE =
+        "INSERT INTO messages (sender_id, chat_id, content, type, timestamp) VALUES (?, ?, ?, ?, ?)";
+
+    private DatabaseManager databaseManager;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        System.setProperty("db.url", "jdbc:h2:mem:inserts;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("db.username", "sa");
+        System.setProperty("db.password", "");
+        databaseManager = DatabaseManager.getInstance();
+
+        try (Connection conn = databaseManager.getConnection(); Statement stmt = conn.createStatement()) {
+            for (int i = 1; i <= USERS; i++) {
+                stmt.execute("INSERT INTO users (username, email, password_hash) VALUES " +
+                    "('user" + i + "', 'user" + i + "@example.com', 'hash')");
+            }
+            for (int i = 1; i <= CHATS; i++) {
+                stmt.execute("INSERT INTO chats (name, type, creator_id) VALUES ('chat " + i + "', 'GROUP', 1)");
+            }
+        }
+    }
+
+    private void bind(PreparedStatement stmt) throws SQLException {
+        int i = next++;
+        stmt.setInt(1, 1 + i % USERS);
+        stmt.setInt(2, 1 + i % CHATS);
+        stmt.setString(3, "benchmark message " + i);
+        stmt.setString(4, "TEXT");
+        stmt.setTimestamp(5, Timestamp.valueOf(LocalDateTime.now()));
+    }
+
+    @Benchmark
+    public int insertMessage() throws SQLException {
+        try (Connection conn = databaseManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(INSERT_MESSAGE)) {
+            bind(stmt);
+            return stmt.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int[] insertMessageBatch() throws SQLException {
+        try (Connection conn = databaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(INSERT_MESSAGE)) {
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    bind(stmt);
+                    stmt.addBatch();
+                }
+                int[] counts = stmt.executeBatch();
+                conn.commit();
+                return counts;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        databaseManager.shutdown();
+    }
+}
@@ -0,0 +1,59 @@
+package com.chatapp.protocol;
+
+import com.chatapp.model.Message;
+import com.fasterxml.jackson.databind.MappingIterator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The blocking handlers' inbound JSON path over a stream of 1000 messages: the old
+ * readLine-then-parse loop versus MessageJson.readStream parsing straight from the bytes.
+ * Run with -prof gc and compare gc.alloc.rate.norm, which is per message here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InboundJsonBenchmark {
+    static final int MESSAGES = 1000;
+
+    private byte[] stream;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < MESSAGES; i++) {
+            Message message = new Message(48213 + i % 7, 1057, "Are we still on for the design review at three? #" + i,
+                Message.MessageType.TEXT);
+            message.setSenderUsername("user" + i % 7);
+            out.write(WireProtocol.JSON.encode(message));
+        }
+        stream = out.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void readLineThenParse(Blackhole blackhole) throws IOException {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new ByteArrayInputStream(stream), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            blackhole.consume(MessageJson.read(line));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void streamingParse(Blackhole blackhole) throws IOException {
+        MappingIterator<Message> messages = MessageJson.readStream(new ByteArrayInputStream(stream));
+        while (messages.hasNextValue()) {
+            blackhole.consume(messages.nextValue());
+        }
+    }
+}
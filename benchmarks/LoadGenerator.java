@@ -0,0 +1,380 @@
+package com.chatapp.loadtest;
+
+import com.chatapp.client.ChatClient;
+import com.chatapp.database.DatabaseManager;
+import com.chatapp.database.PasswordHasher;
+import com.chatapp.model.Message;
+import com.chatapp.protocol.WireProtocol;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator for a running ChatServer. It seeds users, private chats and
+ * groups straight into the server's database, connects one ChatClient per user and logs it
+ * in, then sends text messages at a fixed rate and records send-to-delivery latency at every
+ * recipient. Every seeded user has the same password. Options are --name=value:
+ * <pre>
+ * host, port          server address (localhost:8080)
+ * connections         users, one connection each (500)
+ * privateChats        private chats started per user (2)
+ * groups              group chats (connections / 10)
+ * groupSizeMin/Max    group size bounds (3 / 500)
+ * groupSizeAlpha      Pareto shape of group sizes, lower means more big groups (1.2)
+ * groupShare          fraction of messages sent to groups (0.3)
+ * rate                messages per second across all senders (1000)
+ * warmup, duration    seconds; warmup intervals are logged but left out of the summary (10 / 60)
+ * payload             message content length in characters (64)
+ * protocol            binary or json (binary)
+ * out                 prefix for the .hlog and .hgrm result files (loadtest)
+ * </pre>
+ * Latency is measured from when a message was due to be sent, not when the pacer got to
+ * it, so a stalled generator shows up in the numbers instead of hiding them.
+ */
+public class LoadGenerator {
+    private static final String CONTENT_PREFIX = "lt ";
+    private static final String PASSWORD = "load-test";
+
+    private final Map<String, String> options;
+    private final Recorder recorder = new Recorder(3);
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private final List<ChatClient> clients = new ArrayList<>();
+    private int[] userIds;
+    private String[] usernames;
+    // Per user index: the chats it belongs to, split by type, and every chat's size
+    private int[][] privateChatsOf;
+    private int[][] groupsOf;
+    private final Map<Integer, Integer> chatSizes = new HashMap<>();
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Options are --name=value, got " + arg);
+                System.exit(1);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private void run() throws Exception {
+        int connections = intOption("connections", 500);
+        seed(connections);
+        connect(WireProtocol.valueOf(option("protocol", "binary").toUpperCase(Locale.ROOT)));
+        try {
+            drive();
+        } finally {
+            clients.forEach(ChatClient::disconnect);
+        }
+    }
+
+    private void seed(int connections) throws SQLException {
+        Random random = new Random(intOption("seed", 42));
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        DatabaseManager databaseManager = DatabaseManager.getInstance();
+
+        try (Connection conn = databaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+
+            usernames = new String[connections];
+            // Hashed once: a salt shared by throwaway users is fine, and hashing is slow
+            String passwordHash = PasswordHasher.hash(PASSWORD);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO users (username, email, password_hash) VALUES (?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                for (int i = 0; i < connections; i++) {
+                    usernames[i] = "lt" + run + "_" + i;
+                    stmt.setString(1, usernames[i]);
+                    stmt.setString(2, usernames[i] + "@loadtest.local");
+                    stmt.setString(3, passwordHash);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                userIds = generatedKeys(stmt, connections);
+            }
+
+            // Private chats pair each user with random partners; group sizes follow a bounded
+            // Pareto distribution, so most groups are small and a few are very large
+            List<int[]> chats = new ArrayList<>();
+            int privateChats = intOption("privateChats", 2);
+            for (int i = 0; i < connections && connections > 1; i++) {
+                for (int c = 0; c < privateChats; c++) {
+                    int partner = random.nextInt(connections - 1);
+                    chats.add(new int[] {i, partner >= i ? partner + 1 : partner});
+                }
+            }
+            int privateCount = chats.size();
+            int groups = intOption("groups", connections / 10);
+            int minSize = Math.min(intOption("groupSizeMin", 3), connections);
+            int maxSize = Math.min(intOption("groupSizeMax", 500), connections);
+            double alpha = Double.parseDouble(option("groupSizeAlpha", "1.2"));
+            for (int g = 0; g < groups && minSize >= 2; g++) {
+                int size = paretoSize(random, minSize, maxSize, alpha);
+                chats.add(sample(random, connections, size));
+            }
+
+            int[] chatIds;
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO chats (name, type, creator_id) VALUES (?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                for (int c = 0; c < chats.size(); c++) {
+                    stmt.setString(1, "lt" + run + " chat " + c);
+                    stmt.setString(2, c < privateCount ? "PRIVATE" : "GROUP");
+                    stmt.setInt(3, userIds[chats.get(c)[0]]);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                chatIds = generatedKeys(stmt, chats.size());
+            }
+
+            List<List<Integer>> privateLists = new ArrayList<>();
+            List<List<Integer>> groupLists = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                privateLists.add(new ArrayList<>());
+                groupLists.add(new ArrayList<>());
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO chat_participants (chat_id, user_id) VALUES (?, ?)")) {
+                int pending = 0;
+                for (int c = 0; c < chats.size(); c++) {
+                    int[] members = chats.get(c);
+                    chatSizes.put(chatIds[c], members.length);
+                    for (int member : members) {
+                        (c < privateCount ? privateLists : groupLists).get(member).add(chatIds[c]);
+                        stmt.setInt(1, chatIds[c]);
+                        stmt.setInt(2, userIds[member]);
+                        stmt.addBatch();
+                        if (++pending == 1000) {
+                            stmt.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                }
+                stmt.executeBatch();
+            }
+            conn.commit();
+
+            privateChatsOf = toArrays(privateLists);
+            groupsOf = toArrays(groupLists);
+            System.out.printf("Seeded %d users, %d private chats and %d groups%n",
+                connections, privateCount, chats.size() - privateCount);
+        }
+    }
+
+    private static int[] generatedKeys(PreparedStatement stmt, int count) throws SQLException {
+        int[] keys = new int[count];
+        try (ResultSet rs = stmt.getGeneratedKeys()) {
+            for (int i = 0; i < count; i++) {
+                if (!rs.next()) {
+                    throw new SQLException("Expected " + count + " generated keys, got " + i);
+                }
+                keys[i] = rs.getInt(1);
+            }
+        }
+        return keys;
+    }
+
+    private static int paretoSize(Random random, int min, int max, double alpha) {
+        double size = min / Math.pow(1 - random.nextDouble(), 1 / alpha);
+        return (int) Math.min(max, size);
+    }
+
+    private static int[] sample(Random random, int population, int size) {
+        Set<Integer> picked = new LinkedHashSet<>();
+        while (picked.size() < size) {
+            picked.add(random.nextInt(population));
+        }
+        return picked.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[][] toArrays(List<List<Integer>> lists) {
+        int[][] arrays = new int[lists.size()][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = lists.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return arrays;
+    }
+
+    private void connect(WireProtocol protocol) throws InterruptedException {
+        String host = option("host", "localhost");
+        int port = intOption("port", 8080);
+        ChatClient[] connected = new ChatClient[userIds.length];
+        AtomicInteger failed = new AtomicInteger();
+
+        ExecutorService connectors = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < userIds.length; i++) {
+            int index = i;
+            connectors.execute(() -> {
+                ChatClient client = new ChatClient(host, port, protocol);
+                client.setMessageHandler(this::onMessage);
+                try {
+                    if (!client.connect() || client.authenticate(usernames[index], PASSWORD) == null) {
+                        failed.incrementAndGet();
+                        client.disconnect();
+                        return;
+                    }
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    client.disconnect();
+                    return;
+                }
+                connected[index] = client;
+            });
+        }
+        connectors.shutdown();
+        connectors.awaitTermination(10, TimeUnit.MINUTES);
+        if (failed.get() > 0) {
+            throw new IllegalStateException(failed.get() + " connections failed");
+        }
+        // Every client has had its login answered, so the server has bound them all
+        clients.addAll(Arrays.asList(connected));
+        System.out.printf("Connected %d clients to %s:%d using %s%n",
+            clients.size(), host, port, clients.get(0).getProtocol());
+    }
+
+    private void onMessage(Message message) {
+        String content = message.getContent();
+        if (message.getType() != Message.MessageType.TEXT || content == null
+                || !content.startsWith(CONTENT_PREFIX)) {
+            return;
+        }
+        int end = content.indexOf(' ', CONTENT_PREFIX.length());
+        long sentNanos = Long.parseLong(content.substring(CONTENT_PREFIX.length(), end < 0 ? content.length() : end));
+        recorder.recordValue(Math.max(0, (System.nanoTime() - sentNanos) / 1000));
+        delivered.increment();
+    }
+
+    private void drive() throws IOException, InterruptedException {
+        int rate = intOption("rate", 1000);
+        int warmupSeconds = intOption("warmup", 10);
+        int durationSeconds = intOption("duration", 60);
+        String padding = "x".repeat(Math.max(0, intOption("payload", 64) - 24));
+        double groupShare = Double.parseDouble(option("groupShare", "0.3"));
+        String out = option("out", "loadtest");
+
+        Histogram summary = new Histogram(3);
+        long startMillis = System.currentTimeMillis();
+        try (PrintStream hlog = new PrintStream(new File(out + ".hlog"))) {
+            HistogramLogWriter writer = new HistogramLogWriter(hlog);
+            writer.outputComment("chat load test: " + options);
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(startMillis);
+            writer.setBaseTime(startMillis);
+            writer.outputLegend();
+            recorder.reset();
+
+            Thread pacer = new Thread(() -> pace(rate, warmupSeconds + durationSeconds, groupShare, padding),
+                "load-pacer");
+            pacer.start();
+
+            Histogram interval = null;
+            long lastDelivered = 0;
+            long lastExpected = 0;
+            // One extra second at the end lets messages sent in the last interval arrive
+            for (int second = 1; second <= warmupSeconds + durationSeconds + 1; second++) {
+                Thread.sleep(1000);
+                interval = recorder.getIntervalHistogram(interval);
+                writer.outputIntervalHistogram(interval);
+                if (second > warmupSeconds) {
+                    summary.add(interval);
+                }
+
+                long deliveredNow = delivered.sum();
+                long expectedNow = expected.sum();
+                System.out.printf("%4ds %s  sent to %7d  delivered %7d/s  p50 %8.3f  p99 %8.3f  p999 %8.3f  max %8.3f ms%n",
+                    second, second <= warmupSeconds ? "warmup" : "      ",
+                    expectedNow - lastExpected, deliveredNow - lastDelivered,
+                    millis(interval.getValueAtPercentile(50)), millis(interval.getValueAtPercentile(99)),
+                    millis(interval.getValueAtPercentile(99.9)), millis(interval.getMaxValue()));
+                lastDelivered = deliveredNow;
+                lastExpected = expectedNow;
+            }
+            pacer.join();
+            writer.close();
+        }
+
+        try (PrintStream hgrm = new PrintStream(new File(out + ".hgrm"))) {
+            summary.outputPercentileDistribution(hgrm, 1000.0);
+        }
+        System.out.printf("%nDelivered %d of %d expected deliveries over %ds (%.0f deliveries/s)%n",
+            delivered.sum(), expected.sum(), warmupSeconds + durationSeconds + 1,
+            delivered.sum() / (double) (warmupSeconds + durationSeconds + 1));
+        System.out.printf("Latency after warmup: p50 %.3f  p99 %.3f  p999 %.3f  max %.3f ms (%d samples)%n",
+            millis(summary.getValueAtPercentile(50)), millis(summary.getValueAtPercentile(99)),
+            millis(summary.getValueAtPercentile(99.9)), millis(summary.getMaxValue()), summary.getTotalCount());
+        System.out.printf("Wrote %s.hlog (per-second intervals) and %s.hgrm (summary, ms)%n", out, out);
+    }
+
+    private void pace(int rate, int seconds, double groupShare, String padding) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long total = (long) rate * seconds;
+        long start = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (long i = 0; i < total; i++) {
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            int sender = random.nextInt(clients.size());
+            int[] candidates = groupsOf[sender].length > 0 && random.nextDouble() < groupShare
+                ? groupsOf[sender] : privateChatsOf[sender];
+            if (candidates.length == 0) {
+                candidates = groupsOf[sender];
+                if (candidates.length == 0) {
+                    continue;
+                }
+            }
+            int chatId = candidates[random.nextInt(candidates.length)];
+
+            // Timestamp left unset: the server stamps it, and the due time travels in the content
+            Message message = new Message();
+            message.setType(Message.MessageType.TEXT);
+            message.setSenderId(userIds[sender]);
+            message.setSenderUsername(usernames[sender]);
+            message.setChatId(chatId);
+            message.setContent(CONTENT_PREFIX + due + " " + padding);
+            clients.get(sender).sendMessage(message);
+            // Every member gets it, the sender included
+            expected.add(chatSizes.get(chatId));
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+}
@@ -0,0 +1,101 @@
+package com.chatapp.server;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.core.joran.spi.JoranException;
+import com.chatapp.model.Message;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * What logging costs ClientHandler.handleTextMessage per message, with four threads sending
+ * at once. "synchronous" is the previous logback.xml: com.chatapp at DEBUG, appenders called
+ * on the logging thread. "async" is the current logback.xml at its default INFO level, and
+ * "async-debug" the same with com.chatapp at DEBUG. everyMessageWithContent is the line
+ * handleTextMessage used to log; sampledWithoutContent is the one it logs now. Logs go to a
+ * file in a temporary directory; the console appender is left out so JMH's output isn't flooded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(ClientHandler.class);
+
+    @Param({"synchronous", "async", "async-debug"})
+    public String config;
+
+    private Path logDirectory;
+    private Message message;
+    private LogSampler sampler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JoranException {
+        logDirectory = Files.createTempDirectory("chat-logging-bench");
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        context.reset();
+        JoranConfigurator configurator = new JoranConfigurator();
+        configurator.setContext(context);
+        configurator.doConfigure(new ByteArrayInputStream(configuration().getBytes(StandardCharsets.UTF_8)));
+
+        message = new Message(48213, 1057, "Are we still on for the design review at three?", Message.MessageType.TEXT);
+        sampler = new LogSampler(ServerConfig.load().getMessageLogSampleRate());
+    }
+
+    private String configuration() {
+        String file = logDirectory.resolve("chatapp.log").toString();
+        String fileAppender =
+            "<appender name=\"FILE\" class=\"ch.qos.logback.core.FileAppender\">" +
+            "<file>" + file + "</file>" +
+            (config.equals("synchronous") ? "" : "<immediateFlush>false</immediateFlush>") +
+            "<encoder><pattern>%d{yyyy-MM-dd HH:mm:ss.SSS} [%thread] %-5level %logger{36} - %msg%n</pattern></encoder>" +
+            "</appender>";
+        if (config.equals("synchronous")) {
+            return "<configuration>" + fileAppender +
+                "<root level=\"INFO\"><appender-ref ref=\"FILE\"/></root>" +
+                "<logger name=\"com.chatapp\" level=\"DEBUG\"/>" +
+                "</configuration>";
+        }
+        return "<configuration>" + fileAppender +
+            "<appender name=\"ASYNC_FILE\" class=\"ch.qos.logback.classic.AsyncAppender\">" +
+            "<queueSize>8192</queueSize><discardingThreshold>1024</discardingThreshold>" +
+            "<neverBlock>true</neverBlock><appender-ref ref=\"FILE\"/></appender>" +
+            "<root level=\"INFO\"><appender-ref ref=\"ASYNC_FILE\"/></root>" +
+            "<logger name=\"com.chatapp\" level=\"" + (config.equals("async-debug") ? "DEBUG" : "INFO") + "\"/>" +
+            "</configuration>";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ((LoggerContext) LoggerFactory.getILoggerFactory()).stop();
+        try (Stream<Path> files = Files.walk(logDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void everyMessageWithContent() {
+        logger.info("Text message from {}: {}", message.getSenderId(), message.getContent());
+    }
+
+    @Benchmark
+    public void sampledWithoutContent() {
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Text message from {} to chat {} ({} chars, 1 in {} logged)", message.getSenderId(),
+                    message.getChatId(), message.getContent().length(), sampler.getRate());
+        }
+    }
+}
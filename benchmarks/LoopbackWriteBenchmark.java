@@ -0,0 +1,138 @@
+package com.chatapp.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes 100k chat lines through a loopback socket, comparing the old autoflush
+ * PrintWriter with the batched SocketConnection writer. The socketWrites counter is the
+ * number of write calls that reached the socket stream, i.e. roughly the send syscalls.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoopbackWriteBenchmark {
+    private static final int MESSAGES = 100_000;
+    private static final String LINE =
+        "{\"id\":0,\"senderId\":42,\"chatId\":7,\"content\":\"hello from the loopback benchmark\",\"type\":\"TEXT\"}";
+    private static final byte[] FRAME = (LINE + "\n").getBytes(StandardCharsets.UTF_8);
+
+    @Param({"autoflush", "batched"})
+    public String writer;
+
+    private ServerSocket serverSocket;
+    private CountingSocket sender;
+    private Socket receiver;
+    private ExecutorService writerPool;
+    private CountDownLatch received;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class WriteCounters {
+        public long socketWrites;
+    }
+
+    @Setup(Level.Iteration)
+    public void connect() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        sender = new CountingSocket();
+        sender.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()));
+        receiver = serverSocket.accept();
+        writerPool = Executors.newSingleThreadExecutor();
+
+        received = new CountDownLatch(1);
+        Thread reader = new Thread(this::readAll, "loopback-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readAll() {
+        byte[] buffer = new byte[64 * 1024];
+        int lines = 0;
+        try (InputStream in = receiver.getInputStream()) {
+            int read;
+            while (lines < MESSAGES && (read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Socket closed by tearDown
+        }
+        received.countDown();
+    }
+
+    @Benchmark
+    public void push100k(WriteCounters counters) throws Exception {
+        long writesBefore = sender.writes;
+        if ("autoflush".equals(writer)) {
+            PrintWriter output = new PrintWriter(sender.getOutputStream(), true);
+            for (int i = 0; i < MESSAGES; i++) {
+                output.println(LINE);
+            }
+        } else {
+            OutboundQueue queue = new OutboundQueue(MESSAGES, OutboundQueue.SlowConsumerPolicy.DISCONNECT,
+                new OutboundStats());
+            SocketConnection connection = new SocketConnection(sender, writerPool, 64 * 1024, 5);
+            for (int i = 0; i < MESSAGES; i++) {
+                queue.offer(FRAME);
+                connection.requestWrite(queue);
+            }
+        }
+        received.await();
+        counters.socketWrites += sender.writes - writesBefore;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        writerPool.shutdownNow();
+        sender.close();
+        receiver.close();
+        serverSocket.close();
+    }
+
+    // Counts write calls on the socket's stream without changing what gets written
+    static class CountingSocket extends Socket {
+        volatile long writes;
+        private OutputStream counting;
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (counting == null) {
+                counting = new FilterOutputStream(super.getOutputStream()) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        writes++;
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        writes++;
+                        out.write(b);
+                    }
+                };
+            }
+            return counting;
+        }
+    }
+}
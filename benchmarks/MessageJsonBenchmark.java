@@ -0,0 +1,76 @@
+package com.chatapp.model;
+
+import com.chatapp.protocol.MessageJson;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message JSON round trips through the shared MessageJson reader and writer: a single chat
+ * message, and a history response carrying 50 of them. serializeWithNewMapper is what every
+ * connection used to pay for its first message, when each handler built its own mapper.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageJsonBenchmark {
+
+    @Param({"text", "history"})
+    public String shape;
+
+    private Message message;
+    private String json;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if ("history".equals(shape)) {
+            List<Message> history = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                history.add(textMessage(i));
+            }
+            message = new Message();
+            message.setType(Message.MessageType.HISTORY_RESPONSE);
+            message.setChatId(1057);
+            message.setHistory(history);
+        } else {
+            message = textMessage(0);
+        }
+        json = MessageJson.writer().writeValueAsString(message);
+    }
+
+    private static Message textMessage(int i) {
+        Message message = new Message(48213 + i % 7, 1057, "Are we still on for the design review at three? #" + i,
+            Message.MessageType.TEXT);
+        message.setId(9_482_117 + i);
+        message.setSenderUsername("user" + i % 7);
+        return message;
+    }
+
+    @Benchmark
+    public String serialize() throws IOException {
+        return MessageJson.writer().writeValueAsString(message);
+    }
+
+    @Benchmark
+    public String serializeWithNewMapper() throws IOException {
+        return new ObjectMapper().registerModule(new JavaTimeModule()).writeValueAsString(message);
+    }
+
+    @Benchmark
+    public Message deserialize() throws IOException {
+        return MessageJson.read(json);
+    }
+
+    @Benchmark
+    public Message roundTrip() throws IOException {
+        return MessageJson.read(MessageJson.writer().writeValueAsString(message));
+    }
+}
@@ -0,0 +1,113 @@
+package com.chatapp.server;
+
+import com.chatapp.database.ConnectionPool;
+import com.chatapp.database.PoolSettings;
+import com.chatapp.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message storage throughput against H2 in MySQL mode: one autocommit INSERT plus chat
+ * update per message (what a synchronous handler would do) versus the write-behind
+ * MessagePersister with batch inserts. Scores are messages per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(MessagePersisterBenchmark.MESSAGES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessagePersisterBenchmark {
+    static final int MESSAGES = 10_000;
+    private static final int CHATS = 100;
+
+    private ConnectionPool pool;
+    private MessagePersister persister;
+    private Message[] messages;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("db.maxActive", "4");
+        pool = new ConnectionPool("jdbc:h2:mem:chatbench;MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "",
+            new PoolSettings(props));
+        pool.start();
+        createSchema();
+
+        persister = new MessagePersister(pool, 500, 20, 50_000, MessagePersister.Durability.ASYNC);
+        persister.start();
+
+        messages = new Message[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = new Message(1 + i % 50, 1 + i % CHATS, "benchmark message " + i, Message.MessageType.TEXT);
+        }
+    }
+
+    private void createSchema() throws SQLException {
+        try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS chats (" +
+                "id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(100) NOT NULL," +
+                "last_message_time TIMESTAMP NULL, last_message TEXT)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS messages (" +
+                "id INT AUTO_INCREMENT PRIMARY KEY, sender_id INT NOT NULL, chat_id INT NOT NULL," +
+                "content TEXT NOT NULL, type ENUM('TEXT', 'IMAGE', 'FILE', 'SYSTEM') DEFAULT 'TEXT'," +
+                "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP, is_read BOOLEAN DEFAULT FALSE)");
+            for (int i = 1; i <= CHATS; i++) {
+                stmt.execute("INSERT INTO chats (name) VALUES ('chat " + i + "')");
+            }
+        }
+    }
+
+    @Benchmark
+    public void insertPerMessage() throws SQLException {
+        for (Message message : messages) {
+            try (Connection conn = pool.getConnection()) {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO messages (sender_id, chat_id, content, type, timestamp) VALUES (?, ?, ?, ?, ?)")) {
+                    stmt.setInt(1, message.getSenderId());
+                    stmt.setInt(2, message.getChatId());
+                    stmt.setString(3, message.getContent());
+                    stmt.setString(4, message.getType().name());
+                    stmt.setTimestamp(5, Timestamp.valueOf(LocalDateTime.now()));
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "UPDATE chats SET last_message = ?, last_message_time = ? WHERE id = ?")) {
+                    stmt.setString(1, message.getContent());
+                    stmt.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
+                    stmt.setInt(3, message.getChatId());
+                    stmt.executeUpdate();
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Message writeBehind() {
+        CompletableFuture<Message> last = null;
+        for (Message message : messages) {
+            while (!persister.tryReserve()) {
+                Thread.onSpinWait();
+            }
+            last = persister.persist(message);
+        }
+        // Batches commit in order, so the last message being stored means all of them are
+        return last.join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        persister.shutdown();
+        pool.close();
+    }
+}
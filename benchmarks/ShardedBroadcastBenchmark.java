@@ -0,0 +1,68 @@
+package com.chatapp.server;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One 50k-member group message through ShardedBroadcaster, from hand-off until every
+ * recipient has it queued, with 1 to 8 broadcast threads. threads=1 is the serial loop;
+ * the others should scale close to linearly up to the number of physical cores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedBroadcastBenchmark {
+
+    @Param({"50000"})
+    public int recipients;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ChatServer server;
+    private ShardedBroadcaster broadcaster;
+    private int[] members;
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("db.url", "jdbc:h2:mem:sharded;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("db.username", "sa");
+        System.setProperty("db.password", "");
+        server = new ChatServer();
+        broadcaster = new ShardedBroadcaster(server, threads, 1, 1);
+
+        members = new int[recipients];
+        for (int i = 0; i < recipients; i++) {
+            int userId = i + 1;
+            members[i] = userId;
+            ClientHandler handler = new ClientHandler(new BroadcastBenchmark.DrainingConnection(), server);
+            handler.useBinaryProtocol();
+            User user = new User();
+            user.setId(userId);
+            user.setUsername("user" + userId);
+            handler.setUser(user);
+        }
+
+        message = new Message(1, 1057, "Are we still on for the design review at three?", Message.MessageType.TEXT);
+        message.setId(9_482_117);
+        message.setSenderUsername("user1");
+    }
+
+    @Benchmark
+    public void fanOut() throws InterruptedException {
+        broadcaster.broadcast(1057, new EncodedMessage(message), members, 1);
+        broadcaster.awaitIdle();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        broadcaster.shutdown();
+    }
+}
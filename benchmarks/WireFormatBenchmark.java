@@ -0,0 +1,59 @@
+package com.chatapp.protocol;
+
+import com.chatapp.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one chat message on the wire: newline-delimited JSON (String line, then
+ * ObjectMapper, as the blocking handlers read it) versus a binary frame. The encoded size of
+ * each format is printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+
+    @Param({"json", "binary"})
+    public String format;
+
+    private Message message;
+    private byte[] encoded;
+    private int headerLength;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        message = new Message(48213, 1057, "Are we still on for the design review at three?", Message.MessageType.TEXT);
+        message.setId(9_482_117);
+        message.setSenderUsername("alice");
+        encoded = encode();
+        if ("binary".equals(format)) {
+            headerLength = BinaryMessageCodec.readFrameHeader(encoded, 0, encoded.length, new int[1]);
+        }
+        System.out.println(format + " message size: " + encoded.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        if ("json".equals(format)) {
+            return WireProtocol.JSON.encode(message);
+        }
+        return BinaryMessageCodec.encodeFrame(message);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        if ("json".equals(format)) {
+            String line = new String(encoded, 0, encoded.length - 1, StandardCharsets.UTF_8);
+            return MessageJson.read(line);
+        }
+        // The NIO transport hands over the payload without its length prefix
+        return BinaryMessageCodec.decode(encoded, headerLength, encoded.length - headerLength);
+    }
+}